@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.searsia.engine.Resource;
+import org.searsia.engine.SearchException;
+import org.searsia.engine.SearchTiming;
+
+/**
+ * Tests all engines of a mother, used by '--test all'. The mother is paged
+ * for resources, while the engines found so far are tested in parallel by
+ * a fixed number of threads. Each engine does a single test query, which
+ * is subject to the engine's own rate limit. The outcome is a report with
+ * the time to get the definition, and the time to fetch, parse and extract
+ * the results of each engine, so slow engines can be spotted.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class EngineTester {
+
+    private final Resource mother;
+    private final int jobs;
+    private final boolean quiet;
+
+    /**
+     * @param mother resource that provides the engines
+     * @param jobs number of engines tested at the same time
+     * @param quiet if true, do not print progress
+     */
+    public EngineTester(Resource mother, int jobs, boolean quiet) {
+        this.mother = mother;
+        this.jobs = jobs;
+        this.quiet = quiet;
+    }
+
+    /**
+     * Warnings for a successful test result
+     * @param result
+     * @return warnings, possibly empty
+     */
+    public static List<String> warnings(SearchResult result) {
+        List<String> warnings = new ArrayList<>();
+        if (result.getHits().size() < 10) {
+            warnings.add("Warning: less than 10 results for query '" + result.getQuery() + "'; see \"testquery\" or \"rerank\".");
+        } else if (result.getHits().size() > 49) {
+            warnings.add("Warning: more than 49 results for query '" + result.getQuery() + "'");
+        }
+        return warnings;
+    }
+
+    /**
+     * Tests the engines in result, and in the next pages of the mother's results.
+     * @param result first page of the mother's results for its test query
+     * @return report: number of engines, number of failed engines, and a result per engine
+     * @throws SearchException if the mother fails
+     */
+    public JSONObject testAll(SearchResult result) throws SearchException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(this.jobs);
+        List<Future<JSONObject>> tests = new ArrayList<>();
+        try {
+            boolean isDone = false;
+            int startPage = this.mother.getIndexOffset();
+            Set<String> tested = new HashSet<String>();
+            tested.add(this.mother.getId());
+            while (!result.getHits().isEmpty() && !isDone) {
+                isDone = true;
+                for (Hit hit: result.getHits()) {
+                    String rid = hit.getRid();
+                    if (rid != null && tested.add(rid)) {
+                        isDone = false;
+                        tests.add(executor.submit(() -> testEngine(rid)));
+                    }
+                }
+                startPage += 1;
+                try {
+                    result = this.mother.search(this.mother.getTestQuery(), "all", startPage);
+                } catch (Exception e) {
+                    throw new SearchException("Mother error: " + e.getMessage());
+                }
+            }
+            JSONArray engines = new JSONArray();
+            int nrFailed = 0;
+            for (Future<JSONObject> test: tests) {
+                JSONObject engine = test.get();
+                if (!engine.getBoolean("ok")) {
+                    nrFailed += 1;
+                }
+                engines.put(engine);
+            }
+            JSONObject report = new JSONObject();
+            report.put("engines", engines.length());
+            report.put("failed", nrFailed);
+            report.put("millis", (System.nanoTime() - start) / 1000000);
+            report.put("results", engines);
+            return report;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new SearchException("Test interrupted: " + e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private JSONObject testEngine(String rid) {
+        JSONObject json = new JSONObject();
+        List<String> messages = new ArrayList<>();
+        json.put("id", rid);
+        long start = System.nanoTime();
+        Resource engine = null;
+        try {
+            engine = this.mother.searchResource(rid);
+            json.put("definition", Math.round((System.nanoTime() - start) / 100000.0) / 10.0);
+            if (engine.getName() != null) {
+                json.put("name", engine.getName());
+                messages.add("Testing: " + rid + " (" + engine.getName() + ")");
+            } else {
+                messages.add("Testing: " + rid);
+            }
+            SearchResult result = engine.randomSearch("none");
+            SearchTiming timing = result.getTiming();
+            json.put("query", result.getQuery());
+            json.put("hits", result.getHits().size());
+            if (timing != null) {
+                json.put("fetch",   timing.getFetchMillis());
+                json.put("parse",   timing.getParseMillis());
+                json.put("extract", timing.getExtractMillis());
+                json.put("bytes",   timing.getBytes());
+            }
+            if (result.getError() != null) {
+                throw new SearchException(result.getError());
+            }
+            List<String> warnings = warnings(result);
+            if (!warnings.isEmpty()) {
+                json.put("warnings", new JSONArray(warnings));
+                messages.addAll(warnings);
+            }
+            json.put("ok", true);
+        } catch (Exception e) {
+            if (engine == null) { // resource not found, so test did not even start
+                messages.add("Testing: " + rid);
+            }
+            messages.add("Test failed: " + e.getMessage());
+            json.put("ok", false);
+            json.put("error", e.getMessage());
+        }
+        print(messages);
+        return json;
+    }
+
+    private void print(List<String> messages) {
+        if (!this.quiet) {
+            synchronized (System.err) { // messages of an engine stay together
+                for (String message: messages) {
+                    System.err.println(message);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia;
+
+/**
+ * Removes HTML from search result fields. Hand-written versions of
+ * regular expressions that ran for every field of every hit, multiple
+ * times. Strings without tags and entities are returned as is.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class HTMLStripper {
+
+    private final static String[] inlineTags = { "b>", "i>", "em>", "strong>" };
+
+    /**
+     * Removes span, b, i, em and strong tags, like the regular expression
+     * "(?i)&lt;/?span[^&gt;]*&gt;|&lt;/?b&gt;|&lt;/?i&gt;|&lt;/?em&gt;|&lt;/?strong&gt;"
+     * @param s
+     * @return s without inline tags
+     */
+    public static String removeInlineTags(String s) {
+        int i = s.indexOf('<');
+        if (i < 0) {
+            return s;
+        }
+        StringBuilder result = new StringBuilder(s.length());
+        result.append(s, 0, i);
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '<') {
+                int end = inlineTagEnd(s, i);
+                if (end > 0) {
+                    i = end;
+                    continue;
+                }
+            }
+            result.append(c);
+            i += 1;
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return the end of the inline tag that starts at i, or -1 if there is none
+     */
+    private static int inlineTagEnd(String s, int i) {
+        int j = i + 1;
+        if (j < s.length() && s.charAt(j) == '/') {
+            j += 1;
+        }
+        if (startsWithIgnoreCase(s, j, "span")) {
+            int end = s.indexOf('>', j + 4);
+            return end < 0 ? -1 : end + 1;
+        }
+        for (String tag: inlineTags) {
+            if (startsWithIgnoreCase(s, j, tag)) {
+                return j + tag.length();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Like the regular expression flag (?i), only ASCII letters are case insensitive
+     * @param tag lower case
+     */
+    private static boolean startsWithIgnoreCase(String s, int i, String tag) {
+        if (i + tag.length() > s.length()) {
+            return false;
+        }
+        for (int j = 0; j < tag.length(); j += 1) {
+            char c = s.charAt(i + j);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            if (c != tag.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the end of the tag "&lt;[^&gt;]+&gt;" that starts at i, or -1 if there is none
+     */
+    private static int tagEnd(String s, int i) {
+        int end = s.indexOf('>', i + 1);
+        return end > i + 1 ? end + 1 : -1;
+    }
+
+    /**
+     * @return the end of the entity "&amp;#?[0-9a-zA-Z]{1,9};" that starts at i, or -1 if there is none
+     */
+    private static int entityEnd(String s, int i) {
+        int j = i + 1;
+        if (j < s.length() && s.charAt(j) == '#') {
+            j += 1;
+        }
+        int start = j;
+        while (j < s.length() && j - start < 10 && isAlphaNumeric(s.charAt(j))) {
+            j += 1;
+        }
+        if (j > start && j - start <= 9 && j < s.length() && s.charAt(j) == ';') {
+            return j + 1;
+        }
+        return -1;
+    }
+
+    private static boolean isAlphaNumeric(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean hasMarkup(String s, boolean entities) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '<' || c == '>' || (entities && c == '&') || (!entities && c == '\ufffd')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes inline tags, then all other tags, entities, and remaining
+     * angle brackets: No HTML, please.
+     * @param s
+     * @return s without HTML
+     */
+    public static String noHTML(String s) {
+        if (!hasMarkup(s, true)) {
+            return s;
+        }
+        s = removeInlineTags(s);
+        StringBuilder result = new StringBuilder(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int end = -1;
+            if (c == '<') {
+                end = tagEnd(s, i);
+            } else if (c == '&') {
+                end = entityEnd(s, i);
+            }
+            if (end > 0) {
+                i = end;
+            } else {
+                if (c != '<' && c != '>') {
+                    result.append(c);
+                }
+                i += 1;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Removes inline tags, replaces other tags and unicode replacement
+     * characters by a space, and trims the result.
+     * @param s
+     * @return s without tags
+     */
+    public static String tagsToSpaces(String s) {
+        if (!hasMarkup(s, false)) {
+            return s.trim();
+        }
+        s = removeInlineTags(s);
+        StringBuilder result = new StringBuilder(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int end = (c == '<') ? tagEnd(s, i) : -1;
+            if (end > 0) {
+                result.append(' ');
+                i = end;
+            } else {
+                result.append(c == '\ufffd' ? ' ' : c);
+                i += 1;
+            }
+        }
+        return result.toString().trim();
+    }
+
+}
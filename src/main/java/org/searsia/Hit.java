@@ -16,6 +16,8 @@
 
 package org.searsia;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.HashMap;
@@ -56,7 +58,7 @@ public class Hit implements Comparable<Hit> {
 			String key = (String) keys.next();
 			Object value = json.get(key);
 			if (value instanceof String) {
-    			map.put(key, noHTML((String) value));
+    			map.put(key, HTMLStripper.noHTML((String) value));
 			} else if (value instanceof Number || value instanceof Boolean) {
 				map.put(key, value);
 			}
@@ -66,6 +68,14 @@ public class Hit implements Comparable<Hit> {
 	public Hit(String jsonString) {
 		this(new JSONObject(jsonString));
 	}
+
+	/**
+	 * Copy of a hit, that can be changed without changing the original.
+	 * @param hit
+	 */
+	public Hit(Hit hit) {
+		this.map = new HashMap<>(hit.map);
+	}
 	
 
 	public void put(String field, Object value) {
@@ -179,18 +189,12 @@ public class Hit implements Comparable<Hit> {
 		return map.entrySet().toString();
 	}
 
-	private String noHTML(String value) {  // TODO: also in TextExtractor??
-		value = value.replaceAll("(?i)</?span[^>]*>|</?b>|</?i>|</?em>|</?strong>", "");  // No HTML, please: spans removed 
-		value = value.replaceAll("<[^>]+>|&#?[0-9a-zA-Z]{1,9};", ""); // no HTML
-		return value.replaceAll("[<>]", "");
-	}
-
     public JSONObject toJson() {
         JSONObject json = new JSONObject();
         for (Entry<String,Object> e: map.entrySet()) {
             Object value = e.getValue();
             if (value instanceof String) {
-                value = noHTML((String) value);
+                value = HTMLStripper.noHTML((String) value);
             }
             json.put(e.getKey(), value);
         }
@@ -198,12 +202,43 @@ public class Hit implements Comparable<Hit> {
     }
 
 	
+	/**
+	 * Writes the hit as json, like toJson() but without building a
+	 * JSONObject: HTML is removed from each field while it is written.
+	 * @param out
+	 * @param censorQueryResourceId if true, leave out "query" and "rid"
+	 * @throws IOException
+	 */
+	public void writeJson(Writer out, boolean censorQueryResourceId) throws IOException {
+		out.write('{');
+		boolean first = true;
+		for (Entry<String,Object> e: map.entrySet()) {
+			String key = e.getKey();
+			Object value = e.getValue();
+			if (value == null || (censorQueryResourceId && (key.equals("query") || key.equals("rid")))) {
+				continue;
+			}
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			JSONObject.quote(key, out);
+			out.write(':');
+			if (value instanceof String) {
+				JSONObject.quote(HTMLStripper.noHTML((String) value), out);
+			} else {
+				out.write(JSONObject.valueToString(value));
+			}
+		}
+		out.write('}');
+	}
+
 	public JSONObject toJsonNoQueryResourceId() {
 		JSONObject json = new JSONObject();
 		for (Entry<String,Object> e: map.entrySet()) {
 			Object value = e.getValue();
 			if (value instanceof String) {
-				value = noHTML((String) value);
+				value = HTMLStripper.noHTML((String) value);
 			}
 			String key = e.getKey();
 			if (!key.equals("query") && !key.equals("rid")) {
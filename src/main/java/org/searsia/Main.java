@@ -22,8 +22,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.logging.SimpleFormatter;
 import java.util.logging.FileHandler;
@@ -33,10 +33,13 @@ import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.json.JSONObject;
 import org.searsia.index.SearchResultIndex;
 import org.searsia.index.ResourceIndex;
 import org.searsia.web.SearsiaApplication;
+import org.searsia.engine.PooledUpstreamClient;
 import org.searsia.engine.Resource;
 import org.searsia.engine.SearchException;
 
@@ -65,7 +68,7 @@ public class Main {
 
 	
     private static void searsiaDaemon(SearchResultIndex index, ResourceIndex engines, 
-    		SearsiaOptions options) throws InterruptedException {
+    		ResourceRefresher refresher, SearsiaOptions options) throws InterruptedException {
     	Resource mother  = engines.getMother();
     	Resource engine  = null;
     	int pollInterval = options.getPollInterval();
@@ -88,7 +91,7 @@ public class Main {
                         } else {
                             LOGGER.warning("Unable to update mother: Did ids change?");
                         }
-                        getResources(mother, result, engines);
+                        getResources(refresher, result);
                 	} else {
                     	engine = engines.getRandom();
                         LOGGER.finest("Next sample: " + engine.getId());
@@ -110,37 +113,15 @@ public class Main {
     }
 
     
-    private static int getResources(Resource mother, SearchResult result, ResourceIndex engines) {
-    	int i = 0;
+    private static int getResources(ResourceRefresher refresher, SearchResult result) {
+        List<String> rids = new ArrayList<>();
     	for (Hit hit: result.getHits()) {
     	     String rid = hit.getString("rid");
     	     if (rid != null ) {
-    	         Resource engine = engines.get(rid);
-    	         if (engine == null || engine.getLastUpdatedSecondsAgo() > 7200) { // TODO: option for 7200 ?
-    	     	     i += 1;
-    	    	     try {
-    	    	         engine = mother.searchResource(rid);
-    	    	     } catch (SearchException e) {
-    	    	         LOGGER.warning("Warning: Update failed: " + e.getMessage());
-    	    	     }
-                     if (engine != null && rid.equals(engine.getId())) { 
-                         engines.put(engine);
-                         if (engine.isDeleted()) {
-                             LOGGER.fine("Deleted: " + rid);
-                         } else {
-                             LOGGER.fine("Updated: " + rid);
-                         }
-                     } else {
-                         LOGGER.warning("Warning: Resource not found: " + rid);
-                     }
-    	         }
+    	         rids.add(rid);
      	     } 
-    	     if (i > 10) {
-    	         break; // not more than the first 10 per check
-    	     }
     	}
-        engines.flush();
-    	return i;
+    	return refresher.refresh(rids); // fetches unknown and old ones, in parallel
     }
 
     private static boolean sameTemplates(String uri1, String uri2, String myId) {
@@ -209,46 +190,20 @@ public class Main {
     }
 
     
-    private static void testAll(Resource mother, SearchResult result, Boolean isQuiet) throws SearchException {
-        int nrFailed = 0;
-        boolean isDone = false;
-    	int startPage = mother.getIndexOffset();
-    	Map<String, Boolean> tested = new HashMap<String, Boolean>();
-    	tested.put(mother.getId(), true);
-    	while (!result.getHits().isEmpty() && !isDone) {
-    		isDone = true;
-            for (Hit hit: result.getHits()) {
-            	String rid = hit.getRid();
-                if (rid != null && !tested.containsKey(rid)) {
-                	tested.put(rid,  true);
-                	isDone = false;
-                	Resource engine = null;
-                    try {
-                        engine = mother.searchResource(hit.getRid());
-                        testEngine(engine, "none", isQuiet);
-                    } catch (Exception e) {
-                        nrFailed += 1;
-                        if (engine == null) { // resource not found, so test did not even start
-                            printMessage("Testing: " + hit.getRid(), isQuiet);
-                        } 
-                        printMessage("Test failed: " + e.getMessage(), isQuiet);                        	
-                    }
-                }
-            }
-            startPage += 1;
-            try {
-                result = mother.search(mother.getTestQuery(), "all", startPage);
-            } catch (Exception e) {
-            	throw new SearchException("Mother error: " + e.getMessage());
-            }
-    	}
+    private static void testAll(Resource mother, SearchResult result, int jobs, Boolean isQuiet) throws SearchException {
+        JSONObject report = new EngineTester(mother, jobs, isQuiet).testAll(result);
+        if (!isQuiet) {
+            System.out.println(report.toString(2));
+            System.out.flush();
+        }
+        int nrFailed = report.getInt("failed");
         if (nrFailed > 0) {
             throw new SearchException(nrFailed + " engines failed.");
         }
     }
     
     
-	private static void testEngine(Resource mother, String debugInfo, Boolean isQuiet) throws SearchException {
+	private static void testEngine(Resource mother, String debugInfo, int jobs, Boolean isQuiet) throws SearchException {
 	    if (mother.getName() != null) {
             printMessage("Testing: " + mother.getId() + " (" + mother.getName() + ")", isQuiet);
 	    } else {
@@ -273,10 +228,8 @@ public class Main {
         if (error != null) {
             throw new SearchException(error);
         }
-        if (result.getHits().size() < 10) {
-            printMessage("Warning: less than 10 results for query '" + result.getQuery() + "'; see \"testquery\" or \"rerank\".", isQuiet);
-        } else if (result.getHits().size() > 49) {
-            printMessage("Warning: more than 49 results for query '" + result.getQuery() + "'", isQuiet);
+        for (String warning: EngineTester.warnings(result)) {
+            printMessage(warning, isQuiet);
         }
         if (debugInfo.equals("all")) {
         	String rid = null;
@@ -284,7 +237,7 @@ public class Main {
         		rid = result.getResource().getId();
         	}
         	if (rid != null && rid.equals(mother.getId())) { // do not trust resources if the mother API provides another ID than the mother ID
-                testAll(mother, result, isQuiet);
+                testAll(mother, result, jobs, isQuiet);
         	} else if (rid == null ){
         		printMessage("Warning: no resources available.", isQuiet);
         	} else {
@@ -315,6 +268,42 @@ public class Main {
 	}
 
 
+    /**
+     * Creates and starts the web server, with the server settings of the
+     * options. In the virtual thread mode, each request is handled by its
+     * own virtual thread.
+     * @param uri base uri of the server
+     * @param app
+     * @param options
+     * @return running server
+     * @throws IOException
+     */
+    static HttpServer startServer(String uri, SearsiaApplication app, SearsiaOptions options) throws IOException {
+        HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(uri), app, false);
+        options.getServerTuning().apply(server, options.isVirtualThreads());
+        if (options.isVirtualThreads()) {
+            for (NetworkListener listener: server.getListeners()) {
+                listener.getTransport().setWorkerThreadPool(Threads.newExecutor("searsia-request", true));
+            }
+        }
+        server.start();
+        return server;
+    }
+
+    /**
+     * Makes all upstream fetches use virtual threads, or the default threads.
+     * @param virtual if true, virtual threads
+     */
+    static void setUpstreamThreads(boolean virtual) {
+        if (virtual) {
+            Resource.setUpstreamClient(new PooledUpstreamClient(PooledUpstreamClient.defaultMAXPERHOST,
+                Threads.newExecutor("searsia-fetch", true)));
+        } else {
+            Resource.setUpstreamClient(new PooledUpstreamClient());
+        }
+    }
+
+
     public static void main(String[] args) {
     	ResourceIndex engines   = null;
     	SearchResultIndex index = null;
@@ -331,6 +320,12 @@ public class Main {
     	    System.exit(0); 
     	}
         printMessage("Searsia server " + SearsiaApplication.VERSION, options.isQuiet());
+        if (options.isVirtualThreads()) {
+            if (!Threads.isVirtualAvailable()) {
+                fatalError("Virtual threads need Java 21 or later (remove '--virtual').");
+            }
+            setUpstreamThreads(true);
+        }
        
         
     	// Connect to the mother engine and gather information from the mother.
@@ -380,7 +375,7 @@ public class Main {
   	            path = tmpDir;
   	        }
   	        try {
-  	            testEngine(mother, options.getTestOutput(), options.isQuiet());
+  	            testEngine(mother, options.getTestOutput(), options.getTestJobs(), options.isQuiet());
                 printMessage("Test succeeded.", options.isQuiet());
   	        } catch (Exception e) {
   	            fatalError("Test failed: " + e.getLocalizedMessage());
@@ -400,7 +395,8 @@ public class Main {
 	    engines.putMother(mother);
 	    engines.putMyself(myself);
         
-	    getResources(mother, result, engines);
+	    ResourceRefresher refresher = new ResourceRefresher(mother, engines, options.getRefreshThreads(), options.getRefreshRate());
+	    getResources(refresher, result);
 	    
 	    // Export index and exit
 	    if (options.isExport()) {
@@ -425,7 +421,7 @@ public class Main {
         String myURI = removeFileNameUri(options.getMyURI());
     	try {
     	    SearsiaApplication app = new SearsiaApplication(index, engines, options);
-            server = GrizzlyHttpServerFactory.createHttpServer(URI.create(myURI), app); 
+            server = startServer(myURI, app, options);
     	} catch (Exception e) {
             fatalError("Server failed: " + e.getMessage());
     	}
@@ -437,9 +433,10 @@ public class Main {
             printMessage("API template: " + myAPI, options.isQuiet());
             printMessage("Use Ctrl+c to stop.", options.isQuiet());
             try {
-                searsiaDaemon(index, engines, options);
+                searsiaDaemon(index, engines, refresher, options);
             } catch (InterruptedException e) { }
         }
+        refresher.shutdown();
         server.shutdownNow(); // Catch ctrl+c: http://www.waelchatila.com/2006/01/13/1137143896635.html
     }
 } 
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.searsia.engine.RateLimiter;
+import org.searsia.engine.Resource;
+import org.searsia.index.ResourceIndex;
+
+/**
+ * Refreshes resource definitions from the mother. Stale definitions are
+ * fetched concurrently, by a fixed number of threads, and not more than a
+ * maximum number per minute, so the mother is not flooded. Updates are
+ * applied to the resource index when all fetches are done, and the index
+ * is flushed once.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class ResourceRefresher {
+
+    private final static Logger LOGGER = Logger.getLogger(ResourceRefresher.class.getName());
+    private final static long staleSeconds = 7200; // TODO: option for 7200 ?
+
+    private final Resource mother;
+    private final ResourceIndex engines;
+    private final ExecutorService executor;
+    private final RateLimiter limiter;
+    private final int ratePerMinute;
+
+    /**
+     * @param mother resource that provides the definitions
+     * @param engines index to update
+     * @param parallel number of definitions fetched at the same time
+     * @param ratePerMinute maximum number of definitions fetched per minute
+     */
+    public ResourceRefresher(Resource mother, ResourceIndex engines, int parallel, int ratePerMinute) {
+        this.mother = mother;
+        this.engines = engines;
+        this.ratePerMinute = ratePerMinute;
+        this.limiter = new RateLimiter(60000, ratePerMinute);
+        this.executor = Executors.newFixedThreadPool(parallel, runnable -> {
+            Thread thread = new Thread(runnable, "searsia-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fetches the definitions of the resources that are unknown or stale,
+     * then updates and flushes the index.
+     * @param rids resource identifiers, for instance of the hits of a mother sample
+     * @return number of definitions fetched
+     */
+    public int refresh(List<String> rids) {
+        Map<String, Resource> known = new LinkedHashMap<>();
+        List<Future<Resource>> fetches = new ArrayList<>();
+        for (String rid: rids) {
+            if (known.containsKey(rid)) {
+                continue;
+            }
+            Resource engine = this.engines.get(rid);
+            if (engine != null && engine.getLastUpdatedSecondsAgo() <= staleSeconds) {
+                continue;
+            }
+            if (!this.limiter.tryAcquire(this.ratePerMinute)) {
+                LOGGER.fine("Refresh rate limit reached: next time " + rid);
+                break;
+            }
+            known.put(rid, engine);
+            fetches.add(this.executor.submit(() -> this.mother.searchResource(rid, engine))); // conditional request if known
+        }
+        int i = 0;
+        for (Map.Entry<String, Resource> entry: known.entrySet()) {
+            String rid = entry.getKey();
+            Resource engine = entry.getValue();
+            try {
+                engine = fetches.get(i).get();
+            } catch (ExecutionException e) {
+                LOGGER.warning("Warning: Update failed: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            i += 1;
+            update(rid, entry.getValue(), engine);
+        }
+        this.engines.flush();
+        return i;
+    }
+
+    private void update(String rid, Resource known, Resource engine) {
+        if (engine != null && rid.equals(engine.getId())) {
+            if (engine == known) {
+                engine.setLastUpdatedToNow(); // not modified (or failed): no need to compare
+            } else {
+                this.engines.put(engine);
+            }
+            if (engine.isDeleted()) {
+                LOGGER.fine("Deleted: " + rid);
+            } else {
+                LOGGER.fine("Updated: " + rid);
+            }
+        } else {
+            LOGGER.warning("Warning: Resource not found: " + rid);
+        }
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+}
@@ -16,6 +16,8 @@
 
 package org.searsia;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -30,6 +32,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.searsia.index.ResourceIndex;
 import org.searsia.engine.Resource;
+import org.searsia.engine.SearchTiming;
 
 /**
  * A Searsia Search result page, 
@@ -51,6 +54,7 @@ public class SearchResult {
     private String resourceId;
 	private String version;
 	private String error;
+	private SearchTiming timing;
 	
 	public SearchResult() {
 		this(null);
@@ -109,6 +113,17 @@ public class SearchResult {
         this.error = error;
     }
 
+	public void setTiming(SearchTiming timing) {
+		this.timing = timing;
+	}
+
+	/**
+	 * @return time spent on fetching, parsing and extracting, or null if not searched
+	 */
+	public SearchTiming getTiming() {
+		return this.timing;
+	}
+
 	public void setDebugOut(String debugOut) {
 		this.debugOut = debugOut;
 	}
@@ -334,6 +349,40 @@ public class SearchResult {
      * *******************************************************************/
 
 	
+	/**
+	 * Merges the results of several resources by reciprocal rank fusion:
+	 * A hit at rank r (starting at 1) scores 1 / (k + r). Hits with the same
+	 * url are merged, and their scores added. Cormack, Clarke and Buettcher,
+	 * SIGIR 2009, use k = 60.
+	 * @param results results of several resources
+	 * @param k rank constant
+	 * @return merged result, best hit first (the scores of the hits are replaced)
+	 */
+	public static SearchResult fuse(List<SearchResult> results, int k) {
+		Map<String, Hit> byUrl = new HashMap<String, Hit>();
+		SearchResult fused = new SearchResult();
+		for (SearchResult result: results) {
+			int rank = 1;
+			for (Hit hit: result.getHits()) {
+				float score = 1.0f / (k + rank);
+				rank += 1;
+				String url = hit.getUrl();
+				Hit same = (url == null) ? null : byUrl.get(url);
+				if (same != null) {
+					same.setScore(same.getScore() + score);
+				} else {
+					hit.setScore(score);
+					fused.addHit(hit);
+					if (url != null) {
+						byUrl.put(url, hit);
+					}
+				}
+			}
+		}
+		Collections.sort(fused.hits, (hit1, hit2) -> Float.compare(hit2.getScore(), hit1.getScore()));
+		return fused;
+	}
+
 	public String randomTerm(String notThisOne) { // TODO: keep track of more previous random queries?
         int size = this.hits.size();
         if (size > 0) {
@@ -359,6 +408,37 @@ public class SearchResult {
         return toJson(false);
     }
 
+	/**
+	 * Copy of the hits, that can be changed without changing this result
+	 * @return new search result
+	 */
+	public SearchResult copyHits() {
+		SearchResult result = new SearchResult();
+		for (Hit hit: this.hits) {
+			result.addHit(new Hit(hit));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the hits as a json array, in one pass, see Hit.writeJson()
+	 * @param out
+	 * @param censorQueryResourceId if true, leave out "query" and "rid"
+	 * @throws IOException
+	 */
+	public void writeHits(Writer out, boolean censorQueryResourceId) throws IOException {
+		out.write('[');
+		boolean first = true;
+		for (Hit hit: this.hits) {
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			hit.writeJson(out, censorQueryResourceId);
+		}
+		out.write(']');
+	}
+
 	public JSONObject toJson(boolean censorQueryResourceId) {
 		JSONObject r = new JSONObject();
 		r.put("hits", new JSONArray());
@@ -17,7 +17,11 @@
 package org.searsia;
 
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.net.MalformedURLException;
+import java.util.Properties;
 import java.util.logging.Level;
 
 import org.apache.commons.cli.DefaultParser;
@@ -26,6 +30,7 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.searsia.web.ServerTuning;
 
 /**
  * Searsia Server options.
@@ -41,12 +46,17 @@ public class SearsiaOptions {
     private Boolean dontshare;
     private Boolean export;
     private Boolean nohealth;
+    private Boolean virtual;
 	private int cacheSize;
     private int pollInterval;
+    private int refreshThreads;
+    private int refreshRate;
+    private int testJobs;
     private int logLevel;
     private String myURI;
     private String motherTemplate;
     private String indexPath; 
+    private ServerTuning serverTuning;
 
     /**
      * Takes command line options and sensible defaults.
@@ -59,15 +69,21 @@ public class SearsiaOptions {
         options.addOption("c", "cache",    true,  "Set cache size (integer: number of result pages).");
         options.addOption("d", "dontshare",false, "Do not share resource definitions.");
         options.addOption("e", "export",   false, "Export index to stdout and exit.");
+        options.addOption("f", "config",   true,  "Set config file with web server settings (properties: workers, workerqueue, selectors, ...).");
         options.addOption("h", "help",     false, "Show help.");
         options.addOption("i", "interval", true,  "Set poll interval (integer: in seconds).");
+        options.addOption("j", "jobs",     true,  "Set number of engines tested in parallel by '-t all' (integer).");
         options.addOption("l", "log",      true,  "Set log level (0=off, 1=error, 2=warn=default, 3=info, 4=debug).");
         options.addOption("m", "mother",   true,  "Set url of mother's api web service end point.");
         options.addOption("n", "nohealth", false, "Do not share health report.");
         options.addOption("p", "path",     true,  "Set directory path to store the index.");
         options.addOption("q", "quiet",    false, "No output to console.");
+        options.addOption("r", "refresh",  true,  "Set number of resource definitions fetched in parallel (integer).");
+        options.addOption("s", "refreshrate", true, "Set maximum number of resource definitions fetched per minute (integer).");
         options.addOption("t", "test",     true,  "Print test output and exit (string: 'json', 'xml', 'response', 'all').");
         options.addOption("u", "url",      true,  "Set url of my api web service endpoint.");
+        options.addOption("v", "virtual",  false, "Handle requests and upstream fetches on virtual threads (Java 21).");
+        options.addOption("w", "workers",  true,  "Set number of web server worker threads (integer).");
         setDefaults();
         parse(options, args);
         if (myURI == null) {
@@ -92,12 +108,17 @@ public class SearsiaOptions {
         dontshare      = false;
         export         = false;
         nohealth       = false;
+        virtual        = false;
         cacheSize      = 500;
         pollInterval   = 120;
+        refreshThreads = 4;
+        refreshRate    = 60;
+        testJobs       = 8;
         logLevel       = 2;
         myURI          = null; // is set in constructor
         motherTemplate = null;
         indexPath      = friendlyIndexPath();
+        serverTuning   = new ServerTuning(); // Grizzly's defaults
     }
     
     
@@ -163,6 +184,30 @@ public class SearsiaOptions {
               	pollInterval = 10;
             }
         }
+        if (cmd.hasOption("j")) {
+            testJobs = Integer.parseInt(cmd.getOptionValue("j"));
+            if (testJobs < 1) {
+                testJobs = 1;
+            }
+        }
+        if (cmd.hasOption("f")) {
+            readConfig(cmd.getOptionValue("f"));
+        }
+        if (cmd.hasOption("w")) {
+            serverTuning.set("workers", cmd.getOptionValue("w")); // overrides the config file
+        }
+        if (cmd.hasOption("r")) {
+            refreshThreads = Integer.parseInt(cmd.getOptionValue("r"));
+            if (refreshThreads < 1) {
+                refreshThreads = 1;
+            }
+        }
+        if (cmd.hasOption("s")) {
+            refreshRate = Integer.parseInt(cmd.getOptionValue("s"));
+            if (refreshRate < 2) {
+                refreshRate = 2;
+            }
+        }
         if (cmd.hasOption("l")) {
             logLevel = Integer.parseInt(cmd.getOptionValue("l"));
             if (logLevel < 0) {
@@ -184,6 +229,9 @@ public class SearsiaOptions {
         if (cmd.hasOption("n")) {
             nohealth = true;
         }
+        if (cmd.hasOption("v")) {
+            virtual = true;
+        }
         if (cmd.hasOption("u")) {
             myURI  = cmd.getOptionValue("u");
         }
@@ -203,6 +251,17 @@ public class SearsiaOptions {
     }
     
     
+    private void readConfig(String fileName) throws IllegalArgumentException {
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(fileName)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read config file: " + e.getMessage());
+        }
+        serverTuning.set(properties);
+    }
+
+
     private void help(Options options) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("searsiaserver", options);
@@ -259,6 +318,38 @@ public class SearsiaOptions {
     	return pollInterval;
     }
     
+    /**
+     * Get number of resource definitions fetched in parallel from the mother.
+     * @return number of threads
+     */
+    public int getRefreshThreads() {
+        return refreshThreads;
+    }
+
+    /**
+     * Get maximum number of resource definitions fetched per minute from the mother.
+     * @return refresh rate
+     */
+    public int getRefreshRate() {
+        return refreshRate;
+    }
+
+    /**
+     * Get number of engines tested in parallel, if the test is 'all'.
+     * @return number of threads
+     */
+    public int getTestJobs() {
+        return testJobs;
+    }
+
+    /**
+     * Get the web server settings, from the config file and '-w'.
+     * @return server settings
+     */
+    public ServerTuning getServerTuning() {
+        return serverTuning;
+    }
+
     public String getMyURI() {
     	return myURI;
     }
@@ -287,6 +378,14 @@ public class SearsiaOptions {
         return nohealth;
     }
     
+    /**
+     * Virtual threads for requests and upstream fetches, instead of pooled threads.
+     * @return true if virtual threads
+     */
+    public Boolean isVirtualThreads() {
+        return virtual;
+    }
+
     public Boolean isHelp() {
         return help;
     }
@@ -299,10 +398,12 @@ public class SearsiaOptions {
     	result += "\n  Mother        = " + getMotherTemplate();
     	result += "\n  Index Path    = " + getIndexPath();
     	result += "\n  Poll Interval = " + getPollInterval();
+    	result += "\n  Refresh       = " + getRefreshThreads() + " threads, " + getRefreshRate() + " per minute";
     	result += "\n  Cache Size    = " + getCacheSize();
     	result += "\n  Test Output   = " + getTestOutput();
         result += "\n  Do Not Share  = " + isNotShared();
         result += "\n  No Health Rep.= " + isNoHealthReport();
+        result += "\n  Virtual Thr.  = " + isVirtualThreads();
     	return result;
     }
 
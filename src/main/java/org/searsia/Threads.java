@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors for work that blocks, like handling requests and waiting for
+ * upstream engines. In the virtual mode ('--virtual'), every task gets its
+ * own virtual thread, so blocking is cheap and no pool needs tuning.
+ * Virtual threads need Java 21; they are looked up by reflection, so the
+ * server still builds and runs on Java 11 without them.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class Threads {
+
+    private static final Method ofVirtual = method(Thread.class, "ofVirtual");
+    private static final Method newThreadPerTaskExecutor = method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null; // before Java 21
+        }
+    }
+
+    /**
+     * @return true if this Java runtime has virtual threads
+     */
+    public static boolean isVirtualAvailable() {
+        return ofVirtual != null && newThreadPerTaskExecutor != null;
+    }
+
+    /**
+     * Executor that starts a new thread for each task, or reuses an idle one.
+     * Threads are daemons, so they do not keep the server alive.
+     * @param name name of the threads
+     * @param virtual if true, virtual threads
+     * @return executor
+     * @throws IllegalStateException if virtual threads are not available
+     */
+    public static ExecutorService newExecutor(String name, boolean virtual) {
+        if (virtual) {
+            return virtualExecutor(name);
+        }
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ExecutorService virtualExecutor(String name) {
+        if (!isVirtualAvailable()) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later.");
+        }
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object virtualBuilder = ofVirtual.invoke(null);
+            virtualBuilder = builder.getMethod("name", String.class).invoke(virtualBuilder, name);
+            ThreadFactory factory = (ThreadFactory) builder.getMethod("factory").invoke(virtualBuilder);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads failed: " + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker for the upstream requests of a resource. The outcomes of
+ * the last requests are kept in a sliding window. If too many of them
+ * failed, the circuit opens and requests fail fast, instead of waiting for
+ * the timeouts of an engine that is down. After a while the circuit is
+ * half-open: a single probe request is let through, and its outcome
+ * closes or re-opens the circuit. The state is replaced by compare-and-set,
+ * like in RateLimiter.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class CircuitBreaker {
+
+    public final static String CLOSED = "closed";
+    public final static String OPEN = "open";
+    public final static String HALF_OPEN = "half-open";
+
+    private final static class State {
+        private final String mode;
+        private final long outcomes; // bit i is set if request i ago failed
+        private final int calls;     // number of outcomes in the window
+        private final long since;    // Unix time at which the circuit (half-)opened
+        private final State opened;  // if half-open: the open state before the probe
+
+        private State(String mode, long outcomes, int calls, long since) {
+            this(mode, outcomes, calls, since, null);
+        }
+
+        private State(String mode, long outcomes, int calls, long since, State opened) {
+            this.mode = mode;
+            this.outcomes = outcomes;
+            this.calls = calls;
+            this.since = since;
+            this.opened = opened;
+        }
+    }
+
+    private final static State closed = new State(CLOSED, 0L, 0, 0L);
+
+    private final int window;
+    private final int minCalls;
+    private final double threshold;
+    private final long openMillis;
+    private final AtomicReference<State> state = new AtomicReference<>(closed);
+
+    /**
+     * @param window number of recent requests considered, at most 64
+     * @param minCalls minimum number of requests in the window before the circuit opens
+     * @param threshold fraction of failed requests at which the circuit opens
+     * @param openMillis time in milliseconds before a probe is let through
+     */
+    public CircuitBreaker(int window, int minCalls, double threshold, long openMillis) {
+        if (window < 1 || window > 64) {
+            throw new IllegalArgumentException("Window must be between 1 and 64");
+        }
+        this.window = window;
+        this.minCalls = minCalls;
+        this.threshold = threshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Asks permission for a request. If permission is given, the outcome
+     * must be reported with success() or failure(), or with notSent() if
+     * the request was not sent after all.
+     * @return true if the request may be sent
+     */
+    public boolean allowRequest() {
+        while (true) {
+            State old = this.state.get();
+            if (old.mode == CLOSED) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if (now - old.since < this.openMillis) {  // open, or a probe is on its way
+                return false;
+            }
+            State probe = new State(HALF_OPEN, old.outcomes, old.calls, now, old);
+            if (this.state.compareAndSet(old, probe)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reports a successful request
+     */
+    public void success() {
+        while (true) {
+            State old = this.state.get();
+            State next;
+            if (old.mode == CLOSED) {
+                next = new State(CLOSED, old.outcomes << 1, Math.min(old.calls + 1, this.window), 0L);
+            } else if (old.mode == HALF_OPEN) {
+                next = closed;
+            } else {
+                return; // sent before the circuit opened
+            }
+            if (this.state.compareAndSet(old, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reports a failed request
+     */
+    public void failure() {
+        while (true) {
+            State old = this.state.get();
+            State next;
+            if (old.mode == CLOSED) {
+                long outcomes = (old.outcomes << 1) | 1L;
+                int calls = Math.min(old.calls + 1, this.window);
+                if (calls >= this.minCalls && failures(outcomes) >= this.threshold * calls) {
+                    next = new State(OPEN, outcomes, calls, System.currentTimeMillis());
+                } else {
+                    next = new State(CLOSED, outcomes, calls, 0L);
+                }
+            } else if (old.mode == HALF_OPEN) {
+                next = new State(OPEN, old.outcomes, old.calls, System.currentTimeMillis());
+            } else {
+                return;
+            }
+            if (this.state.compareAndSet(old, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reports that a request was allowed, but not sent, for instance
+     * because of the rate limit. An unused probe is given back, so the
+     * next request may probe right away.
+     */
+    public void notSent() {
+        State old = this.state.get();
+        if (old.mode == HALF_OPEN) {
+            this.state.compareAndSet(old, old.opened);
+        }
+    }
+
+    private int failures(long outcomes) {
+        if (this.window < 64) {
+            outcomes &= (1L << this.window) - 1;
+        }
+        return Long.bitCount(outcomes);
+    }
+
+    /**
+     * Closes the circuit, and forgets the outcomes of earlier requests
+     */
+    public void reset() {
+        this.state.set(closed);
+    }
+
+    /**
+     * @return "closed", "open" or "half-open"
+     */
+    public String getState() {
+        return this.state.get().mode;
+    }
+
+    public boolean isClosed() {
+        return this.state.get().mode == CLOSED;
+    }
+
+}
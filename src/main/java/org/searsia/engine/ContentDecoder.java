@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.brotli.dec.BrotliInputStream;
+
+/**
+ * Decodes compressed response bodies (HTTP Content-Encoding).
+ *
+ * @author Djoerd Hiemstra
+ */
+public class ContentDecoder {
+
+    /**
+     * Value for the Accept-Encoding request header
+     */
+    public final static String acceptEncoding = "gzip, deflate, br";
+
+    /**
+     * Decodes a page. The decoded page is not larger than maxBytes,
+     * which also protects us against "zip bombs".
+     * @param contentEncoding value of the Content-Encoding header, or null
+     * @param page the page as received
+     * @param maxBytes maximum size of the decoded page
+     * @return decoded page, or the same page if it was not encoded
+     * @throws IOException if the encoding is unknown, or the page is corrupt or too large
+     */
+    public static PageBuffer decode(String contentEncoding, PageBuffer page, int maxBytes) throws IOException {
+        if (contentEncoding == null) {
+            return page;
+        }
+        String[] encodings = contentEncoding.split(",");
+        for (int i = encodings.length - 1; i >= 0; i -= 1) { // last applied encoding first
+            String encoding = encodings[i].trim().toLowerCase();
+            if (encoding.equals("") || encoding.equals("identity")) {
+                continue;
+            }
+            PageBuffer decoded = new PageBuffer(maxBytes);
+            try (InputStream in = decoderStream(encoding, page)) { // closing frees the native memory of the decoder
+                decoded.append(in);
+            }
+            page = decoded;
+        }
+        return page;
+    }
+
+    private static InputStream decoderStream(String encoding, PageBuffer page) throws IOException {
+        InputStream in = page.getInputStream();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(in);
+        } else if (encoding.equals("deflate")) {
+            return new DeflateStream(in, !isZlib(page));
+        } else if (encoding.equals("br")) {
+            return new BrotliInputStream(in);
+        }
+        throw new IOException("Content encoding not supported: " + encoding);
+    }
+
+    /**
+     * "deflate" should be zlib-wrapped, but some servers send raw deflate data
+     */
+    private static boolean isZlib(PageBuffer page) {
+        if (page.size() < 2) {
+            return false;
+        }
+        int b0 = page.byteAt(0) & 0xff;
+        int b1 = page.byteAt(1) & 0xff;
+        return (b0 & 0x0f) == 8 && (b0 * 256 + b1) % 31 == 0;
+    }
+
+    /**
+     * InflaterInputStream with our own Inflater, which it does not end itself.
+     */
+    private static class DeflateStream extends InflaterInputStream {
+        DeflateStream(InputStream in, boolean nowrap) {
+            super(in, new Inflater(nowrap));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.inf.end();
+            }
+        }
+    }
+
+}
@@ -17,6 +17,7 @@
 
 package org.searsia.engine;
 
+import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.HashMap;
@@ -55,6 +56,26 @@ public class DOMBuilder {
    * @throws RuntimeException if not well-formed
    */
   public static Document string2DOM(String xmlString) {
+    return inputSource2DOM(new InputSource(new StringReader(xmlString)));
+  }
+
+
+  /**
+   * Parses XML directly from a byte stream
+   * @param in XML bytes
+   * @param encoding character encoding, or null to use the XML declaration
+   * @return W3C Document
+   */
+  public static Document stream2DOM(InputStream in, String encoding) {
+    InputSource source = new InputSource(in);
+    if (encoding != null) {
+        source.setEncoding(encoding);
+    }
+    return inputSource2DOM(source);
+  }
+
+
+  private static Document inputSource2DOM(InputSource source) {
 
     Document document = null;
 
@@ -68,7 +89,7 @@ public class DOMBuilder {
         factory.setAttribute("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
         factory.setAttribute("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
         DocumentBuilder docBuilder = factory.newDocumentBuilder();
-        document  =  docBuilder.parse(new InputSource(new StringReader(xmlString)));
+        document  =  docBuilder.parse(source);
     } catch (Exception e) {
         throw new RuntimeException(e);
     }
@@ -326,9 +347,24 @@ public class DOMBuilder {
    * @param name XML element name
    * @return correct XML element name
    */
-  private static String correctXML(String name) {
+  static String correctXML(String name) {
+    if (isXMLName(name)) {
+      return name;
+    }
     name = name.replaceAll("[^A-Z0-9a-z\\-_\\.]|^([^A-Za-z_])", "_$1");
     return name;
   }
+
+  private static boolean isXMLName(String name) {
+    if (name.isEmpty()) return false;
+    char first = name.charAt(0);
+    if (!((first >= 'a' && first <= 'z') || (first >= 'A' && first <= 'Z') || first == '_')) return false;
+    for (int i = 1; i < name.length(); i += 1) {
+      char c = name.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+             c == '-' || c == '_' || c == '.')) return false;
+    }
+    return true;
+  }
   
 }  
\ No newline at end of file
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.searsia.Hit;
+
+/**
+ * The text extractors of a resource, compiled into a plan that fills all
+ * fields of a hit in a single traversal of the item's subtree, instead of
+ * one path evaluation per extractor. Extractors with paths that cannot be
+ * matched during the traversal (with predicates, or looking outside the
+ * item) are evaluated separately. Plans are immutable, and therefore
+ * thread-safe.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class ExtractionPlan {
+
+    private final List<TextExtractor> extractors;
+    private final TextExtractor[] single;                 // extractors in the single pass
+    private final PathExpression.FieldMatcher[] matchers;
+    private final TextExtractor[] separate;               // other extractors
+
+    /**
+     * @param extractors text extractors that all have a native path
+     */
+    public ExtractionPlan(List<TextExtractor> extractors) {
+        this.extractors = new ArrayList<>(extractors);
+        List<TextExtractor> single = new ArrayList<>();
+        List<PathExpression.FieldMatcher> matchers = new ArrayList<>();
+        List<TextExtractor> separate = new ArrayList<>();
+        for (TextExtractor extractor: extractors) {
+            PathExpression.FieldMatcher matcher = extractor.getNativePath().getFieldMatcher();
+            if (matcher == null) {
+                separate.add(extractor);
+            } else {
+                single.add(extractor);
+                matchers.add(matcher);
+            }
+        }
+        this.single = single.toArray(new TextExtractor[single.size()]);
+        this.matchers = matchers.toArray(new PathExpression.FieldMatcher[matchers.size()]);
+        this.separate = separate.toArray(new TextExtractor[separate.size()]);
+    }
+
+    /**
+     * @return true if the plan was compiled for these extractors
+     */
+    public boolean isFor(List<TextExtractor> extractors) {
+        return this.extractors.equals(extractors);
+    }
+
+    /**
+     * Fills a hit with the fields of an item
+     * @param model
+     * @param item context node
+     * @param urlPath url of the page, for relative urls
+     * @return hit
+     */
+    public <N> Hit extract(NodeModel<N> model, N item, String urlPath) {
+        Hit hit = new Hit();
+        if (model.kind(item) == NodeModel.ELEMENT && this.single.length > 0) {
+            List<List<StringBuilder>> values = traverse(model, item);
+            for (int e = 0; e < this.single.length; e += 1) {
+                List<StringBuilder> value = values.get(e);
+                String result = "";
+                if (value.size() == 1) {
+                    result = value.get(0).toString();
+                } else if (value.size() > 1) {
+                    StringBuilder sb = new StringBuilder();
+                    for (StringBuilder v: value) {
+                        if (sb.length() != 0) {
+                            sb.append(" ");
+                        }
+                        sb.append(v);
+                    }
+                    result = sb.toString();
+                }
+                this.single[e].addResult(result, hit, urlPath);
+            }
+        } else {
+            for (TextExtractor extractor: this.single) {
+                extractor.extract(model, item, hit, urlPath);
+            }
+        }
+        for (TextExtractor extractor: this.separate) {
+            extractor.extract(model, item, hit, urlPath);
+        }
+        return hit;
+    }
+
+    /**
+     * Visits the subtree of the item once, and collects for each extractor
+     * the string-values of the selected nodes, in document order. The
+     * string-value of a selected element grows while its subtree is visited.
+     */
+    private <N> List<List<StringBuilder>> traverse(NodeModel<N> model, N item) {
+        int n = this.matchers.length;
+        List<List<StringBuilder>> values = new ArrayList<>(n);
+        for (int e = 0; e < n; e += 1) {
+            values.add(new ArrayList<>(1));
+        }
+        List<StringBuilder> open = new ArrayList<>();  // selected elements that are being visited
+        long[] states = new long[n * 8];
+        int[] marks = new int[8];
+        boolean alive = false;
+        for (int e = 0; e < n; e += 1) {
+            long state = this.matchers[e].start();
+            states[e] = state;
+            alive |= visitElement(model, item, e, state, values, open);
+        }
+        if (!alive && open.isEmpty()) {
+            return values;
+        }
+        N cur = model.firstChild(item);
+        int depth = 1;
+        boolean afterText = false;
+        while (cur != null) {
+            boolean isText = model.kind(cur) == NodeModel.TEXT;
+            N next = null;
+            int parent = (depth - 1) * n;
+            if (isText) {
+                String text = model.value(cur);
+                for (int e = 0; e < n; e += 1) {
+                    if (!afterText && this.matchers[e].matchesText(states[parent + e])) {
+                        values.get(e).add(new StringBuilder(text)); // XPath sees adjacent text nodes as one
+                    }
+                }
+                for (StringBuilder value: open) {
+                    value.append(text);
+                }
+            } else {
+                if ((depth + 1) * n > states.length) {
+                    states = Arrays.copyOf(states, states.length * 2);
+                    marks = Arrays.copyOf(marks, marks.length * 2);
+                }
+                marks[depth] = open.size();
+                String name = model.name(cur);
+                alive = false;
+                for (int e = 0; e < n; e += 1) {
+                    long state = this.matchers[e].next(states[parent + e], name);
+                    states[depth * n + e] = state;
+                    if (state != 0L) {
+                        alive |= visitElement(model, cur, e, state, values, open);
+                    }
+                }
+                if (alive || !open.isEmpty()) {
+                    next = model.firstChild(cur);
+                }
+            }
+            if (next != null) {
+                depth += 1;
+                afterText = false;
+                cur = next;
+                continue;
+            }
+            if (!isText) {
+                close(open, marks[depth]);
+            }
+            while (cur != null) {
+                next = model.nextSibling(cur);
+                if (next != null) {
+                    afterText = isText;
+                    cur = next;
+                    break;
+                }
+                depth -= 1;
+                if (depth == 0) {
+                    cur = null;
+                } else {
+                    cur = model.parent(cur);
+                    close(open, marks[depth]);
+                    isText = false;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Selects the element and its attributes for extractor e
+     * @return true if descendants may be selected
+     */
+    private <N> boolean visitElement(NodeModel<N> model, N element, int e, long state,
+            List<List<StringBuilder>> values, List<StringBuilder> open) {
+        PathExpression.FieldMatcher matcher = this.matchers[e];
+        if (matcher.isMatch(state)) {
+            StringBuilder value = new StringBuilder();
+            values.get(e).add(value);
+            open.add(value);
+        }
+        if (matcher.matchesAttributes(state)) {
+            for (N attribute: model.attributes(element)) {
+                if (matcher.matchesAttribute(model.name(attribute))) {
+                    values.get(e).add(new StringBuilder(model.value(attribute)));
+                }
+            }
+        }
+        return matcher.isAlive(state);
+    }
+
+    private static void close(List<StringBuilder> open, int mark) {
+        while (open.size() > mark) {
+            open.remove(open.size() - 1);
+        }
+    }
+
+}
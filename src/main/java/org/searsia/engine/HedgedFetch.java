@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Hedged request: if the first request did not answer within a delay, a
+ * second identical request is sent, and the first response wins. The
+ * other request is cancelled. The request only fails if all requests fail.
+ *
+ * @author Djoerd Hiemstra
+ */
+class HedgedFetch<T> {
+
+    private final Supplier<CompletableFuture<T>> fetch;
+    private final BooleanSupplier mayHedge;
+    private final Runnable hedged;
+    private final Runnable won;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final List<CompletableFuture<T>> requests = new ArrayList<>(2); // under synchronized
+    private int failed = 0;
+
+    private HedgedFetch(Supplier<CompletableFuture<T>> fetch, BooleanSupplier mayHedge, Runnable hedged, Runnable won) {
+        this.fetch = fetch;
+        this.mayHedge = mayHedge;
+        this.hedged = hedged;
+        this.won = won;
+    }
+
+    /**
+     * @param fetch sends a request
+     * @param delay time in milliseconds before the second request
+     * @param mayHedge asked just before the second request; if false, it is not sent
+     * @param hedged called when the second request is sent
+     * @param won called when the second request wins
+     * @return future response
+     */
+    static <T> CompletableFuture<T> fetch(Supplier<CompletableFuture<T>> fetch, long delay,
+            BooleanSupplier mayHedge, Runnable hedged, Runnable won) {
+        HedgedFetch<T> hedge = new HedgedFetch<>(fetch, mayHedge, hedged, won);
+        hedge.send(false);
+        hedge.result.whenComplete((response, e) -> hedge.cancelOthers(null));
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(hedge::hedge);
+        return hedge.result;
+    }
+
+    private void hedge() {
+        synchronized (this) {
+            if (this.result.isDone() || this.requests.size() != 1) {
+                return;
+            }
+        }
+        if (this.mayHedge.getAsBoolean()) {
+            this.hedged.run();
+            send(true);
+        }
+    }
+
+    private void send(boolean isHedge) {
+        CompletableFuture<T> request = this.fetch.get();
+        synchronized (this) {
+            if (this.result.isDone()) {
+                request.cancel(true);
+                return;
+            }
+            this.requests.add(request);
+        }
+        request.whenComplete((response, e) -> {
+            if (e == null) {
+                if (this.result.complete(response)) {
+                    if (isHedge) this.won.run();
+                    cancelOthers(request);
+                }
+            } else {
+                synchronized (this) {
+                    this.failed += 1;
+                    if (this.failed < this.requests.size()) {
+                        return; // another request may still succeed
+                    }
+                }
+                this.result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void cancelOthers(CompletableFuture<T> winner) {
+        List<CompletableFuture<T>> others;
+        synchronized (this) {
+            others = new ArrayList<>(this.requests);
+        }
+        for (CompletableFuture<T> request: others) {
+            if (request != winner) request.cancel(true);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Receives a document as a stream of events (start element, attribute,
+ * text, end element) and collects the items that match an item path.
+ * Only the subtrees of matching elements are built, as TreeNodes. Each
+ * item is passed on as soon as its subtree is complete, until the maximum
+ * number of items is reached. Without an item path, the full document
+ * tree is built.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class ItemCollector {
+
+    private final PathExpression.ItemMatcher matcher;
+    private final int maxItems;
+    private final Consumer<TreeNode> items;
+
+    private long[] states = new long[32];
+    private int depth = 0;
+    private TreeNode current = null;          // element that is being built, or null
+    private TreeNode captured = null;         // top of the subtree that is being built
+    private List<TreeNode> pending = new ArrayList<>();
+    private int nrOfItems = 0;
+    private final TreeNode document;
+
+    /**
+     * Collects items
+     * @param matcher item path
+     * @param maxItems maximum number of items
+     * @param items receives the items, in document order
+     */
+    public ItemCollector(PathExpression.ItemMatcher matcher, int maxItems, Consumer<TreeNode> items) {
+        this.matcher = matcher;
+        this.maxItems = maxItems;
+        this.items = items;
+        this.states[0] = matcher.start();
+        this.document = null;
+    }
+
+    /**
+     * Builds the full document tree
+     */
+    public ItemCollector() {
+        this.matcher = null;
+        this.maxItems = 0;
+        this.items = null;
+        this.document = TreeNode.document();
+        this.current = this.document;
+        this.captured = this.document;
+    }
+
+    public void startElement(String name) {
+        if (isDone()) {
+            return;
+        }
+        long state = 0L;
+        boolean isMatch = false;
+        if (this.matcher != null) {
+            long parentState = this.states[this.depth];
+            if (parentState != 0L) {
+                state = this.matcher.next(parentState, name);
+                isMatch = this.matcher.isMatch(state);
+            }
+        }
+        this.depth += 1;
+        if (this.depth == this.states.length) {
+            this.states = Arrays.copyOf(this.states, this.depth * 2);
+        }
+        this.states[this.depth] = state;
+        if (this.current != null || isMatch) {
+            TreeNode element = TreeNode.element(name);
+            if (this.current == null) {
+                this.captured = element;
+            } else {
+                this.current.add(element);
+            }
+            this.current = element;
+            if (isMatch) {
+                this.pending.add(element);
+            }
+        }
+    }
+
+    public void attribute(String name, String value) {
+        if (this.current != null && !isDone()) {
+            this.current.addAttribute(name, value);
+        }
+    }
+
+    public void text(String value) {
+        if (this.current != null && this.current != this.document && !isDone()) {
+            this.current.add(TreeNode.text(value));
+        }
+    }
+
+    public void endElement() {
+        if (isDone()) {
+            return;
+        }
+        this.depth -= 1;
+        if (this.current != null) {
+            if (this.current == this.captured) {
+                this.current = null;
+                this.captured = null;
+                for (TreeNode item: this.pending) {
+                    if (this.matcher.accept(TreeNode.model, item)) {
+                        this.items.accept(item);
+                        this.nrOfItems += 1;
+                        if (isDone()) break;
+                    }
+                }
+                this.pending.clear();
+            } else {
+                this.current = this.current.getParent();
+            }
+        }
+    }
+
+    /**
+     * @return the element that is currently built, or null if the element is not needed
+     */
+    TreeNode current() {
+        return this.current;
+    }
+
+    /**
+     * @return true if the current element or its descendants are needed
+     */
+    public boolean isActive() {
+        return this.current != null || (this.matcher != null && this.matcher.isAlive(this.states[this.depth]));
+    }
+
+    /**
+     * @return true if the maximum number of items is reached: the rest of the document can be skipped
+     */
+    public boolean isDone() {
+        return this.matcher != null && this.nrOfItems >= this.maxItems;
+    }
+
+    /**
+     * @return the document tree, if no item path was given
+     */
+    public TreeNode getDocument() {
+        return this.document;
+    }
+
+}
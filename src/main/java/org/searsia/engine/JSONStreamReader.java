@@ -0,0 +1,487 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.jsoup.Jsoup;
+
+/**
+ * Reads JSON as a stream of tokens, and sends it to an ItemCollector as
+ * if it was the W3C DOM that DOMBuilder.json2DOM builds: the document
+ * element is "root", JSON arrays become repeated elements, and nested
+ * arrays become "list" elements. The grammar is the lenient grammar of
+ * org.json. Objects of collected items get their members in the order
+ * of JSONObject, so extracted fields are the same as before. Reading
+ * stops when the collector has enough items.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class JSONStreamReader {
+
+    private final Reader in;
+    private final ItemCollector out;
+    private final boolean parseHTML;
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int length = 0;
+    private boolean eof = false;
+    private long character = 0;
+    private final Map<String, String> names = new HashMap<>(); // element names of keys
+
+
+    private JSONStreamReader(Reader in, ItemCollector out, boolean parseHTML) {
+        this.in = in;
+        this.out = out;
+        this.parseHTML = parseHTML;
+    }
+
+    /**
+     * Reads a JSON object or array. An array is read as {"list": array}.
+     * @param in JSON text
+     * @param out receives the document
+     * @param parseHTML if true, strings are parsed as HTML (application/html+json)
+     * @throws IOException
+     * @throws JSONException if not valid JSON
+     */
+    public static void read(Reader in, ItemCollector out, boolean parseHTML) throws IOException {
+        JSONStreamReader reader = new JSONStreamReader(in, out, parseHTML);
+        char c = reader.nextClean();
+        out.startElement("root");
+        if (c == '{') {
+            reader.readObject();
+        } else if (c == '[') {
+            reader.readArray("list");
+        } else {
+            throw reader.syntaxError("A JSONObject text must begin with '{'");
+        }
+        out.endElement();
+    }
+
+    /**
+     * Gets all JSON objects from a Javascript callback result, as
+     * {"list": [object1, object2, ...]}
+     * @param script Javascript
+     * @param out receives the document
+     */
+    public static void readJavascript(String script, ItemCollector out) {
+        int nrOfCurly = 0;
+        int first = -1;
+        out.startElement("root");
+        for (int i = 0; i < script.length() && !out.isDone(); i++) {
+            char c = script.charAt(i);
+            if (c == '{') {
+                if (nrOfCurly == 0) { first = i; }
+                nrOfCurly += 1;
+            } else if (c == '}') {
+                nrOfCurly -= 1;
+                if (nrOfCurly == 0) {
+                    JSONObject object;
+                    try {
+                        object = new JSONObject(script.substring(first, i + 1));
+                    } catch (JSONException e) {
+                        continue;
+                    }
+                    out.startElement("list");
+                    writeObject(object, out);
+                    out.endElement();
+                }
+            }
+        }
+        out.endElement();
+    }
+
+    /**
+     * Sends a jsoup document, parsing attributes that contain a JSON object
+     * as if the object is a child element (application/json+html), like
+     * DOMBuilder.jsoupAndJson2DOM.
+     * @param jsoupDoc
+     * @param out receives the document
+     */
+    public static void readJsoupWithJSON(org.jsoup.nodes.Document jsoupDoc, ItemCollector out) {
+        JsoupModel model = JsoupModel.instance;
+        for (Object node = model.firstChild(jsoupDoc); node != null && !out.isDone(); node = model.nextSibling(node)) {
+            writeJsoup(node, out, true);
+        }
+    }
+
+    private static void writeJsoup(Object node, ItemCollector out, boolean parseJSON) {
+        JsoupModel model = JsoupModel.instance;
+        if (model.kind(node) == NodeModel.TEXT) {
+            out.text(model.value(node));
+            return;
+        }
+        out.startElement(model.name(node));
+        List<Object> jsonAttributes = null;
+        for (Object attribute: model.attributes(node, false)) {
+            String value = model.value(attribute);
+            if (parseJSON && startsObject(value)) {
+                try {
+                    JSONObject object = new JSONObject(value);
+                    if (jsonAttributes == null) {
+                        jsonAttributes = new ArrayList<>();
+                    }
+                    jsonAttributes.add(model.name(attribute));
+                    jsonAttributes.add(object);
+                    continue;
+                } catch (JSONException e) {
+                    // an attribute after all
+                }
+            }
+            out.attribute(model.name(attribute), value);
+        }
+        if (jsonAttributes != null) {
+            for (int i = 0; i < jsonAttributes.size(); i += 2) {
+                out.startElement(DOMBuilder.correctXML((String) jsonAttributes.get(i)));
+                writeObject((JSONObject) jsonAttributes.get(i + 1), out);
+                out.endElement();
+            }
+        }
+        for (Object child = model.firstChild(node); child != null; child = model.nextSibling(child)) {
+            writeJsoup(child, out, parseJSON);
+        }
+        out.endElement();
+    }
+
+    private static boolean startsObject(String value) {
+        for (int i = 0; i < value.length(); i += 1) {
+            char c = value.charAt(i);
+            if (c > ' ') return c == '{';
+        }
+        return false;
+    }
+
+    /**
+     * Sends the members of a parsed object, in the order of DOMBuilder.json2DOM
+     */
+    private static void writeObject(JSONObject object, ItemCollector out) {
+        String[] names = JSONObject.getNames(object);
+        if (names != null) {
+            for (String name: names) {
+                Object value = object.get(name);
+                if (value instanceof JSONArray) {
+                    writeArray((JSONArray) value, out, DOMBuilder.correctXML(name));
+                } else {
+                    writeValue(value, out, DOMBuilder.correctXML(name));
+                }
+            }
+        }
+    }
+
+    private static void writeArray(JSONArray array, ItemCollector out, String name) {
+        for (Object value: array) {
+            writeValue(value, out, name);
+        }
+    }
+
+    private static void writeValue(Object value, ItemCollector out, String name) {
+        out.startElement(name);
+        if (value instanceof JSONArray) {
+            writeArray((JSONArray) value, out, "list");
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject) value, out);
+        } else {
+            writePrimitive(value, out, false);
+        }
+        out.endElement();
+    }
+
+    /**
+     * Text of a primitive, like DOMBuilder.json2DOM: other numbers, and null, have no text.
+     */
+    private static void writePrimitive(Object value, ItemCollector out, boolean parseHTML) {
+        if (value instanceof String && parseHTML) {
+            if (out.isActive()) {
+                org.jsoup.nodes.Document jsoupDoc = Jsoup.parse((String) value);
+                JsoupModel model = JsoupModel.instance;
+                Object html = model.firstChild(jsoupDoc);
+                if (html != null) {
+                    writeJsoup(html, out, false);
+                }
+            }
+        } else if (value instanceof String) {
+            out.text((String) value);
+        } else if (value instanceof Boolean || value instanceof Integer) {
+            out.text(value.toString());
+        } else if (value instanceof Double) {
+            out.text(Double.toString((Double) value));
+        }
+    }
+
+
+    /*
+     * The tokenizer, following org.json.JSONTokener
+     */
+    private char next() throws IOException {
+        if (this.eof) {
+            return 0;
+        }
+        if (this.position == this.length) {
+            this.length = this.in.read(this.buffer);
+            this.position = 0;
+            if (this.length <= 0) {
+                this.length = 0;
+                this.eof = true;
+                return 0;
+            }
+        }
+        this.character += 1;
+        return this.buffer[this.position++];
+    }
+
+    private void back() {
+        if (!this.eof && this.position > 0) {
+            this.position -= 1;
+            this.character -= 1;
+        }
+    }
+
+    private char nextClean() throws IOException {
+        for (;;) {
+            char c = next();
+            if (c == 0 || c > ' ') {
+                return c;
+            }
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + this.character);
+    }
+
+    private String nextString(char quote) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (;;) {
+            char c = next();
+            switch (c) {
+            case 0:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                c = next();
+                switch (c) {
+                case 'b': sb.append('\b'); break;
+                case 't': sb.append('\t'); break;
+                case 'n': sb.append('\n'); break;
+                case 'f': sb.append('\f'); break;
+                case 'r': sb.append('\r'); break;
+                case 'u':
+                    char[] hex = new char[4];
+                    for (int i = 0; i < 4; i += 1) {
+                        hex[i] = next();
+                        if (this.eof) throw syntaxError("Substring bounds error");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(new String(hex), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Illegal escape.");
+                    }
+                    break;
+                case '"':
+                case '\'':
+                case '\\':
+                case '/':
+                    sb.append(c);
+                    break;
+                default:
+                    throw syntaxError("Illegal escape.");
+                }
+                break;
+            default:
+                if (c == quote) {
+                    return sb.toString();
+                }
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * A string, or an unquoted value (number, true, false, null, or unquoted string)
+     * @param c first character
+     */
+    private Object nextPrimitive(char c) throws IOException {
+        if (c == '"' || c == '\'') {
+            return nextString(c);
+        }
+        StringBuilder sb = new StringBuilder();
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+            sb.append(c);
+            c = next();
+        }
+        back();
+        String string = sb.toString().trim();
+        if (string.isEmpty()) {
+            throw syntaxError("Missing value");
+        }
+        return JSONObject.stringToValue(string);
+    }
+
+    private String elementName(String key) {
+        String name = this.names.get(key);
+        if (name == null) {
+            name = DOMBuilder.correctXML(key);
+            this.names.put(key, name);
+        }
+        return name;
+    }
+
+    /**
+     * Reads the members of an object, after '{'
+     */
+    private void readObject() throws IOException {
+        Set<String> keys = new HashSet<>(); // same order as JSONObject's keys
+        TreeNode element = this.out.current();
+        List<String> memberKeys = null;
+        List<Integer> memberStarts = null;
+        if (element != null) {
+            memberKeys = new ArrayList<>();
+            memberStarts = new ArrayList<>();
+        }
+        for (;;) {
+            char c = nextClean();
+            if (c == 0) {
+                throw syntaxError("A JSONObject text must end with '}'");
+            } else if (c == '}') {
+                break;
+            } else if (c == '{' || c == '[') {
+                throw syntaxError("Expected a key");
+            }
+            String key = nextPrimitive(c).toString();
+            if (nextClean() != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            if (!keys.add(key)) {
+                throw syntaxError("Duplicate key \"" + key + "\"");
+            }
+            if (element != null) {
+                memberKeys.add(key);
+                memberStarts.add(element.getChildren().size());
+            }
+            c = nextClean();
+            if (c == '[') {
+                readArray(elementName(key));
+            } else {
+                readValue(c, elementName(key));
+            }
+            if (this.out.isDone()) {
+                return;
+            }
+            c = nextClean();
+            if (c == ';' || c == ',') {
+                if (nextClean() == '}') {
+                    break;
+                }
+                back();
+            } else if (c != '}') {
+                throw syntaxError("Expected a ',' or '}'");
+            } else {
+                break;
+            }
+        }
+        if (element != null && memberKeys.size() > 1) {
+            reorder(element, keys, memberKeys, memberStarts);
+        }
+    }
+
+    /**
+     * Puts the children of the members in the order of keys
+     */
+    private static void reorder(TreeNode element, Set<String> keys, List<String> memberKeys, List<Integer> memberStarts) {
+        List<TreeNode> children = element.getChildren();
+        Map<String, Integer> member = new HashMap<>();
+        for (int i = 0; i < memberKeys.size(); i += 1) {
+            member.put(memberKeys.get(i), i);
+        }
+        List<TreeNode> result = new ArrayList<>(children.size());
+        for (String key: keys) {
+            int i = member.get(key);
+            int end = (i + 1 < memberStarts.size()) ? memberStarts.get(i + 1) : children.size();
+            result.addAll(children.subList(memberStarts.get(i), end));
+        }
+        element.reorder(result);
+    }
+
+    /**
+     * Reads the values of an array, after '[', as elements with name
+     */
+    private void readArray(String name) throws IOException {
+        char c = nextClean();
+        if (c == 0) {
+            throw syntaxError("Expected a ',' or ']'");
+        }
+        if (c == ']') {
+            return;
+        }
+        for (;;) {
+            if (c == ',') {
+                back();
+                this.out.startElement(name); // null
+                this.out.endElement();
+            } else {
+                readValue(c, name);
+            }
+            if (this.out.isDone()) {
+                return;
+            }
+            c = nextClean();
+            if (c == 0) {
+                throw syntaxError("Expected a ',' or ']'");
+            } else if (c == ',') {
+                c = nextClean();
+                if (c == 0) {
+                    throw syntaxError("Expected a ',' or ']'");
+                }
+                if (c == ']') {
+                    return;
+                }
+            } else if (c == ']') {
+                return;
+            } else {
+                throw syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * Reads a value as element with name
+     * @param c first character of the value
+     */
+    private void readValue(char c, String name) throws IOException {
+        this.out.startElement(name);
+        if (c == '{') {
+            readObject();
+        } else if (c == '[') {
+            readArray("list");
+        } else {
+            writePrimitive(nextPrimitive(c), this.out, this.parseHTML);
+        }
+        this.out.endElement();
+    }
+
+}
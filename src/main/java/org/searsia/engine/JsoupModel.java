@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+/**
+ * The jsoup tree, seen as the W3C DOM that DOMBuilder.jsoup2DOM builds:
+ * No comments, scripts, or text directly under the document; element
+ * names are made valid XML names; text is whitespace-normalised;
+ * colons in attribute names become underscores; and attributes are
+ * sorted by name. Nodes are jsoup nodes, or JsoupModel.Attr for attributes.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class JsoupModel implements NodeModel<Object> {
+
+    public final static JsoupModel instance = new JsoupModel();
+
+    /**
+     * An attribute of a jsoup element
+     */
+    public static class Attr {
+        private final Element owner;
+        private final String name;
+        private final String value;
+
+        private Attr(Element owner, String name, String value) {
+            this.owner = owner;
+            this.name  = name;
+            this.value = value;
+        }
+    }
+
+    private JsoupModel() { }
+
+    @Override
+    public int kind(Object node) {
+        if (node instanceof Document) {
+            return DOCUMENT;
+        } else if (node instanceof Element) {
+            return ELEMENT;
+        } else if (node instanceof Attr) {
+            return ATTRIBUTE;
+        }
+        return TEXT;
+    }
+
+    @Override
+    public String name(Object node) {
+        if (node instanceof Attr) {
+            return ((Attr) node).name;
+        } else if (node instanceof Element && !(node instanceof Document)) {
+            return DOMBuilder.correctXML(((Element) node).tagName());
+        }
+        return null;
+    }
+
+    @Override
+    public String value(Object node) {
+        if (node instanceof Attr) {
+            return ((Attr) node).value;
+        } else if (node instanceof TextNode) {
+            return ((TextNode) node).text();
+        }
+        return null;
+    }
+
+    @Override
+    public Object parent(Object node) {
+        if (node instanceof Attr) {
+            return ((Attr) node).owner;
+        }
+        return ((Node) node).parent();
+    }
+
+    private static boolean isVisible(Node node) {
+        if (node instanceof Element) {
+            return true;
+        }
+        return node instanceof TextNode && !(node.parent() instanceof Document);
+    }
+
+    @Override
+    public Object firstChild(Object node) {
+        if (!(node instanceof Element) || ((Element) node).childNodeSize() == 0) {
+            return null;
+        }
+        Node child = ((Element) node).childNode(0);
+        return isVisible(child) ? child : nextSibling(child);
+    }
+
+    @Override
+    public Object nextSibling(Object node) {
+        if (node instanceof Attr) {
+            return null;
+        }
+        Node sibling = ((Node) node).nextSibling();
+        while (sibling != null && !isVisible(sibling)) {
+            sibling = sibling.nextSibling();
+        }
+        return sibling;
+    }
+
+    @Override
+    public List<Object> attributes(Object node) {
+        return attributes(node, true);
+    }
+
+    /**
+     * @param sorted if false, in the order of the page
+     */
+    List<Object> attributes(Object node, boolean sorted) {
+        if (!(node instanceof Element) || node instanceof Document) {
+            return Collections.emptyList();
+        }
+        Element element = (Element) node;
+        if (element.attributesSize() == 0) {
+            return Collections.emptyList();
+        }
+        List<Object> result = new ArrayList<>(element.attributesSize());
+        for (Attribute attribute: element.attributes()) {
+            String name = attribute.getKey();
+            if (name.equals("xmlns")) {
+                continue;
+            }
+            int colon = name.indexOf(':');
+            if (colon > 0) {
+                String prefix = name.substring(0, colon);
+                if (!prefix.equals("xmlns") && !prefix.equals("xml")) {
+                    name = name.replace(':', '_');
+                }
+            }
+            result.add(new Attr(element, name, attribute.getValue()));
+        }
+        if (sorted && result.size() > 1) {
+            result.sort((a, b) -> ((Attr) a).name.compareTo(((Attr) b).name)); // like the W3C DOM
+        }
+        return result;
+    }
+
+}
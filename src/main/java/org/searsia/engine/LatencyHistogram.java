@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONObject;
+
+/**
+ * Rolling histogram of response times. Buckets grow exponentially, four
+ * per power of two milliseconds, so percentiles are accurate up to about
+ * 20%. The histogram covers the current and the previous period: when a
+ * period ends, the counts of the period before are dropped. After two
+ * periods without responses, all counts are dropped, so an engine that is
+ * rarely queried is not judged by old response times. Recording is
+ * lock-free.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class LatencyHistogram {
+
+    private final static int SUB_BUCKETS = 4;   // per power of two
+    private final static int BUCKETS = 18 * SUB_BUCKETS; // up to 2^18 ms, about 4 minutes
+
+    private final long period;
+    private final AtomicLongArray[] windows = { new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS) };
+    private final AtomicLong periodStart;
+    private volatile int current = 0;
+
+    /**
+     * @param period length in milliseconds of a period
+     */
+    public LatencyHistogram(long period) {
+        this.period = period;
+        this.periodStart = new AtomicLong(System.currentTimeMillis());
+    }
+
+    /**
+     * @return bucket of a response time
+     */
+    static int bucket(long millis) {
+        if (millis < 1) {
+            return 0;
+        }
+        int log = 63 - Long.numberOfLeadingZeros(millis);
+        int sub = (log < 2) ? (int) (millis << (2 - log)) & (SUB_BUCKETS - 1)
+                            : (int) (millis >>> (log - 2)) & (SUB_BUCKETS - 1);
+        int bucket = log * SUB_BUCKETS + sub;
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    /**
+     * @return largest response time in a bucket, in milliseconds
+     */
+    static long upperBound(int bucket) {
+        int log = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        double bound = Math.pow(2, log) * (1.0 + (sub + 1) / (double) SUB_BUCKETS);
+        return (long) Math.ceil(bound) - 1;
+    }
+
+    /**
+     * Records a response time
+     * @param millis response time in milliseconds
+     */
+    public void record(long millis) {
+        long now = System.currentTimeMillis();
+        long start = this.periodStart.get();
+        if (now - start >= this.period && this.periodStart.compareAndSet(start, now)) {
+            int previous = 1 - this.current;
+            for (int i = 0; i < BUCKETS; i += 1) {
+                this.windows[previous].set(i, 0L);
+                if (now - start >= 2 * this.period) { // idle: the current period is old too
+                    this.windows[this.current].set(i, 0L);
+                }
+            }
+            this.current = previous;
+        }
+        this.windows[this.current].incrementAndGet(bucket(millis));
+    }
+
+    /**
+     * Counts of the periods that are not over yet, also if nothing was
+     * recorded lately, i.e., if the windows were not rotated
+     */
+    private long[] counts() {
+        long[] counts = new long[BUCKETS];
+        long age = System.currentTimeMillis() - this.periodStart.get();
+        int current = this.current;
+        for (int w = 0; w < this.windows.length; w += 1) {
+            if (age >= 2 * this.period || (age >= this.period && w != current)) {
+                continue;
+            }
+            for (int i = 0; i < BUCKETS; i += 1) {
+                counts[i] += this.windows[w].get(i);
+            }
+        }
+        return counts;
+    }
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long count: counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static long percentile(long[] counts, long total, double p) {
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i += 1) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of response times in the current and previous period
+     */
+    public long getCount() {
+        return total(counts());
+    }
+
+    /**
+     * @param p fraction, for instance 0.99
+     * @return response time in milliseconds below which fraction p of the responses fall, or 0 if none
+     */
+    public long getPercentile(double p) {
+        long[] counts = counts();
+        return percentile(counts, total(counts), p);
+    }
+
+    /**
+     * @return count, percentiles and the non-empty buckets (by their upper bound)
+     */
+    public JSONObject toJson() {
+        long[] counts = counts();
+        long total = total(counts);
+        JSONObject json = new JSONObject();
+        json.put("count", total);
+        if (total > 0) {
+            json.put("p50", percentile(counts, total, 0.50));
+            json.put("p90", percentile(counts, total, 0.90));
+            json.put("p99", percentile(counts, total, 0.99));
+            JSONObject buckets = new JSONObject();
+            for (int i = 0; i < BUCKETS; i += 1) {
+                if (counts[i] > 0) {
+                    buckets.put(Long.toString(upperBound(i)), counts[i]);
+                }
+            }
+            json.put("buckets", buckets);
+        }
+        return json;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.List;
+
+/**
+ * A read-only view of a document tree, as seen by a PathExpression.
+ * The view must show the same tree as the W3C DOM that DOMBuilder
+ * would build for the document, so both give the same search results.
+ *
+ * @param <N> node type
+ * @author Djoerd Hiemstra
+ */
+public interface NodeModel<N> {
+
+    int DOCUMENT  = 0;
+    int ELEMENT   = 1;
+    int TEXT      = 2;
+    int ATTRIBUTE = 3;
+
+    /**
+     * @return DOCUMENT, ELEMENT, TEXT or ATTRIBUTE
+     */
+    int kind(N node);
+
+    /**
+     * @return name of an element or attribute, null otherwise
+     */
+    String name(N node);
+
+    /**
+     * @return value of a text node or attribute, null otherwise
+     */
+    String value(N node);
+
+    /**
+     * @return parent node (the element of an attribute), or null for the document
+     */
+    N parent(N node);
+
+    /**
+     * @return first element or text child, or null
+     */
+    N firstChild(N node);
+
+    /**
+     * @return next element or text sibling, or null
+     */
+    N nextSibling(N node);
+
+    /**
+     * @return attributes of an element, empty for other nodes
+     */
+    List<N> attributes(N node);
+
+}
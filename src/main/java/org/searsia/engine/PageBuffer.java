@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The raw bytes of a page, with a maximum size. Parsers read the bytes
+ * directly from the buffer, so the page is not copied into a String.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class PageBuffer {
+
+    public final static String tooLargeMessage = "Page too large";
+
+    private byte[] buf;
+    private int count = 0;
+    private int maxBytes;
+    private Charset charset = null;
+    private String etag = null;
+    private String lastModified = null;
+    private boolean notModified = false;
+
+    /**
+     * @param maxBytes maximum page size in bytes
+     */
+    public PageBuffer(int maxBytes) {
+        this.buf = new byte[Math.min(8192, Math.max(maxBytes, 0))];
+        this.maxBytes = maxBytes;
+    }
+
+    private void ensureCapacity(int len) throws IOException {
+        if (len > this.maxBytes - this.count) {
+            throw new IOException(tooLargeMessage + ": more than " + this.maxBytes + " bytes");
+        }
+        int needed = this.count + len;
+        if (needed > this.buf.length) {
+            int size = (int) Math.min((long) this.maxBytes, Math.max((long) this.buf.length * 2, needed));
+            this.buf = Arrays.copyOf(this.buf, size);
+        }
+    }
+
+    /**
+     * Appends bytes to the page
+     * @throws IOException if the page gets too large
+     */
+    public void append(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(len);
+        System.arraycopy(b, off, this.buf, this.count, len);
+        this.count += len;
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer to the page
+     * @throws IOException if the page gets too large
+     */
+    public void append(ByteBuffer buffer) throws IOException {
+        int len = buffer.remaining();
+        ensureCapacity(len);
+        buffer.get(this.buf, this.count, len);
+        this.count += len;
+    }
+
+    /**
+     * Appends the full stream to the page, and closes the stream
+     * @throws IOException if the page gets too large
+     */
+    public void append(InputStream in) throws IOException {
+        try {
+            byte[] bytes = new byte[8192];
+            int len;
+            while ((len = in.read(bytes)) != -1) {
+                append(bytes, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the page without copying it
+     * @return input stream
+     */
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(this.buf, 0, this.count);
+    }
+
+    /**
+     * @param charset character set declared by the server, or null if unknown
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * @return character set declared by the server, or null if unknown
+     */
+    public Charset getCharset() {
+        return this.charset;
+    }
+
+    /**
+     * @param etag ETag header of the response, or null
+     * @param lastModified Last-Modified header of the response, or null
+     */
+    public void setValidators(String etag, String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public String getETag() {
+        return this.etag;
+    }
+
+    public String getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * Marks an empty page: the server answered 304 Not Modified
+     */
+    public void setNotModified() {
+        this.notModified = true;
+    }
+
+    public boolean isNotModified() {
+        return this.notModified;
+    }
+
+    private Charset charsetOrDefault() {
+        return this.charset != null ? this.charset : StandardCharsets.UTF_8;
+    }
+
+    public Reader getReader() {
+        return new InputStreamReader(getInputStream(), charsetOrDefault());
+    }
+
+    @Override
+    public String toString() {
+        return toString(charsetOrDefault());
+    }
+
+    public String toString(Charset charset) {
+        return new String(this.buf, 0, this.count, charset);
+    }
+
+    public byte byteAt(int index) {
+        if (index >= this.count) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return this.buf[index];
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public int getMaxBytes() {
+        return this.maxBytes;
+    }
+
+}
@@ -0,0 +1,1025 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compiled XPath location path that is evaluated directly on a NodeModel,
+ * so the document does not have to be converted to a W3C DOM first.
+ * Only the part of XPath 1.0 that search engine configurations use is
+ * supported: the axes child, descendant(-or-self), self, parent, attribute
+ * and following-sibling, the node tests name, *, text() and node(), and
+ * predicates with paths, strings, positions, =, !=, and, or, not(),
+ * contains(), starts-with() and normalize-space(). For other expressions,
+ * compile returns null, and the W3C DOM should be used instead.
+ * Instances are immutable, and therefore thread-safe.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class PathExpression {
+
+    private final static int CHILD = 0;
+    private final static int DESCENDANT = 1;
+    private final static int DESCENDANT_OR_SELF = 2;
+    private final static int SELF = 3;
+    private final static int PARENT = 4;
+    private final static int ATTRIBUTE = 5;
+    private final static int FOLLOWING_SIBLING = 6;
+
+    private final static int TEST_NAME = 0;
+    private final static int TEST_ANY = 1;  // *
+    private final static int TEST_TEXT = 2; // text()
+    private final static int TEST_NODE = 3; // node()
+
+    private final String path;
+    private final Path compiled;
+    private final ItemMatcher matcher;
+    private final FieldMatcher fieldMatcher;
+
+
+    private PathExpression(String path, Path compiled) {
+        this.path = path;
+        this.compiled = compiled;
+        this.matcher = ItemMatcher.compile(compiled);
+        this.fieldMatcher = FieldMatcher.compile(compiled);
+    }
+
+    /**
+     * Compiles an XPath location path
+     * @param path XPath expression
+     * @return compiled path, or null if the expression is not supported
+     */
+    public static PathExpression compile(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            Parser parser = new Parser(path);
+            Expr expr = parser.parseExpr();
+            parser.skipSpace();
+            if (!parser.atEnd() || !(expr instanceof Path)) {
+                return null;
+            }
+            return new PathExpression(path, (Path) expr);
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Selects nodes, in document order
+     * @param model
+     * @param context context node
+     * @return selected nodes
+     */
+    @SuppressWarnings("unchecked")
+    public <N> List<N> select(NodeModel<N> model, N context) {
+        return (List<N>) this.compiled.eval(model, context, 1, 1);
+    }
+
+    /**
+     * The XPath string-value of a node: the concatenated text of an element
+     * @return string-value
+     */
+    public static <N> String stringValue(NodeModel<N> model, N node) {
+        int kind = model.kind(node);
+        if (kind == NodeModel.TEXT || kind == NodeModel.ATTRIBUTE) {
+            return model.value(node);
+        }
+        StringBuilder text = new StringBuilder();
+        N cur = model.firstChild(node);
+        while (cur != null) {
+            if (model.kind(cur) == NodeModel.TEXT) {
+                text.append(model.value(cur));
+            }
+            N next = model.firstChild(cur);
+            while (next == null && cur != node) {
+                next = model.nextSibling(cur);
+                if (next == null) {
+                    cur = model.parent(cur);
+                }
+            }
+            cur = next;
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return a matcher for streaming documents, or null if the path cannot be streamed
+     */
+    public ItemMatcher getItemMatcher() {
+        return this.matcher;
+    }
+
+    /**
+     * @return a matcher for a single pass over the subtree of the context node, or null if not supported
+     */
+    public FieldMatcher getFieldMatcher() {
+        return this.fieldMatcher;
+    }
+
+    /**
+     * @return true if the path only selects the context node, its attributes
+     * and its descendants (and their attributes), so it can be evaluated on
+     * a subtree
+     */
+    public boolean isDownward() {
+        return isDownward(this.compiled, false);
+    }
+
+    private static boolean isDownward(Expr expr, boolean below) {
+        if (expr instanceof Binary) {
+            return isDownward(((Binary) expr).left, below) && isDownward(((Binary) expr).right, below);
+        } else if (expr instanceof Function) {
+            for (Expr arg: ((Function) expr).args) {
+                if (!isDownward(arg, below)) return false;
+            }
+            return true;
+        } else if (expr instanceof Path) {
+            Path path = (Path) expr;
+            if (path.absolute) return false;
+            for (Step step: path.steps) {
+                if (step.axis == PARENT || (step.axis == FOLLOWING_SIBLING && !below)) {
+                    return false;
+                }
+                if (step.axis == CHILD || step.axis == DESCENDANT || step.axis == ATTRIBUTE) {
+                    below = true;
+                }
+                for (Expr predicate: step.predicates) {
+                    if (!isDownward(predicate, below)) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the path may select nodes that are not elements,
+     * attributes or text, like comments in a W3C DOM
+     */
+    public boolean hasNodeTest() {
+        return hasNodeTest(this.compiled);
+    }
+
+    private static boolean hasNodeTest(Expr expr) {
+        if (expr instanceof Binary) {
+            return hasNodeTest(((Binary) expr).left) || hasNodeTest(((Binary) expr).right);
+        } else if (expr instanceof Function) {
+            for (Expr arg: ((Function) expr).args) {
+                if (hasNodeTest(arg)) return true;
+            }
+        } else if (expr instanceof Path) {
+            List<Step> steps = ((Path) expr).steps;
+            for (int i = 0; i < steps.size(); i += 1) {
+                Step step = steps.get(i);
+                if (step.test == TEST_NODE && (step.axis == CHILD || step.axis == DESCENDANT ||
+                        step.axis == FOLLOWING_SIBLING || (step.axis == DESCENDANT_OR_SELF && i == steps.size() - 1))) {
+                    return true;
+                }
+                for (Expr predicate: step.predicates) {
+                    if (hasNodeTest(predicate)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    @Override
+    public String toString() {
+        return this.path;
+    }
+
+
+    /**
+     * Matches an item path incrementally, while a document is read from
+     * start to end, like a finite state machine. The state of an element
+     * is a bit set: bit i means that its children (or descendants) may
+     * match step i. Only paths of child and descendant steps that test
+     * element names are supported, with predicates on the last step only,
+     * and only if the predicates look inside the item.
+     */
+    public static class ItemMatcher {
+
+        private final String[] names;         // null for *
+        private final boolean[] descendant;
+        private final List<Expr> predicates;
+        private final long matchBit;
+
+        private ItemMatcher(List<Step> steps) {
+            int size = steps.size();
+            this.names = new String[size];
+            this.descendant = new boolean[size];
+            for (int i = 0; i < size; i += 1) {
+                Step step = steps.get(i);
+                this.names[i] = step.test == TEST_ANY ? null : step.name;
+                this.descendant[i] = step.axis == DESCENDANT;
+            }
+            this.predicates = steps.get(size - 1).predicates;
+            this.matchBit = 1L << size;
+        }
+
+        private static ItemMatcher compile(Path path) {
+            List<Step> steps = new ArrayList<>();
+            for (Step step: path.steps) {
+                if (step.axis == SELF && step.test == TEST_NODE && step.predicates.isEmpty()) {
+                    continue;
+                }
+                if ((step.axis != CHILD && step.axis != DESCENDANT) ||
+                        (step.test != TEST_NAME && step.test != TEST_ANY)) {
+                    return null;
+                }
+                steps.add(step);
+            }
+            if (steps.isEmpty() || steps.size() > 62) {
+                return null;
+            }
+            for (int i = 0; i < steps.size() - 1; i += 1) {
+                if (!steps.get(i).predicates.isEmpty()) return null;
+            }
+            Step last = steps.get(steps.size() - 1);
+            if (last.isPositional()) {
+                return null;
+            }
+            for (Expr predicate: last.predicates) {
+                if (!isDownward(predicate, false)) return null;
+            }
+            return new ItemMatcher(steps);
+        }
+
+        /**
+         * @return state of the document node
+         */
+        public long start() {
+            return 1L;
+        }
+
+        /**
+         * @param state state of the parent
+         * @param name element name
+         * @return state of the element
+         */
+        public long next(long state, String name) {
+            long result = 0L;
+            state &= this.matchBit - 1;
+            while (state != 0L) {
+                int i = Long.numberOfTrailingZeros(state);
+                state &= state - 1;
+                if (this.descendant[i]) {
+                    result |= 1L << i;
+                }
+                if (this.names[i] == null || this.names[i].equals(name)) {
+                    result |= 1L << (i + 1);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return true if the element matches the path, not counting the predicates
+         */
+        public boolean isMatch(long state) {
+            return (state & this.matchBit) != 0L;
+        }
+
+        /**
+         * @return true if descendants of the element may match
+         */
+        public boolean isAlive(long state) {
+            return (state & (this.matchBit - 1)) != 0L;
+        }
+
+        /**
+         * Checks the predicates of the last step
+         * @param model
+         * @param item a matching element, its subtree must be complete
+         * @return true if the predicates are true for the item
+         */
+        public <N> boolean accept(NodeModel<N> model, N item) {
+            for (Expr predicate: this.predicates) {
+                if (!toBoolean(predicate.eval(model, item, 1, 1))) return false;
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Matches a relative path while the subtree of the context node is
+     * traversed once, from start to end, like ItemMatcher. Supported are
+     * child and descendant steps without predicates, optionally ending in
+     * a text() step or an attribute step. The state of a node is a bit set:
+     * bit i means that its children (or descendants, or attributes) may
+     * match step i.
+     */
+    public static class FieldMatcher {
+
+        private final static int KIND_ELEMENT = 0;
+        private final static int KIND_TEXT = 1;
+        private final static int KIND_ATTRIBUTE = 2;
+        private final static int KIND_SELF_OR_DESCENDANT = 3; // "//" before an attribute step
+
+        private final int[] kinds;
+        private final String[] names;         // null for *, text(), node()
+        private final boolean[] descendant;
+        private final long matchBit;
+
+        private FieldMatcher(int[] kinds, String[] names, boolean[] descendant) {
+            this.kinds = kinds;
+            this.names = names;
+            this.descendant = descendant;
+            this.matchBit = 1L << kinds.length;
+        }
+
+        private static FieldMatcher compile(Path path) {
+            if (path.absolute) {
+                return null;
+            }
+            List<Step> steps = new ArrayList<>();
+            for (Step step: path.steps) {
+                if (!step.predicates.isEmpty()) {
+                    return null;
+                }
+                if (step.axis != SELF || step.test != TEST_NODE) {
+                    steps.add(step);
+                }
+            }
+            int size = steps.size();
+            if (size > 62) {
+                return null;
+            }
+            int[] kinds = new int[size];
+            String[] names = new String[size];
+            boolean[] descendant = new boolean[size];
+            for (int i = 0; i < size; i += 1) {
+                Step step = steps.get(i);
+                boolean isLast = i == size - 1;
+                names[i] = step.test == TEST_NAME ? step.name : null;
+                descendant[i] = step.axis == DESCENDANT;
+                if ((step.axis == CHILD || step.axis == DESCENDANT) && (step.test == TEST_NAME || step.test == TEST_ANY)) {
+                    kinds[i] = KIND_ELEMENT;
+                } else if ((step.axis == CHILD || step.axis == DESCENDANT) && step.test == TEST_TEXT && isLast) {
+                    kinds[i] = KIND_TEXT;
+                } else if (step.axis == ATTRIBUTE && isLast) {
+                    kinds[i] = KIND_ATTRIBUTE;
+                } else if (step.axis == DESCENDANT_OR_SELF && step.test == TEST_NODE && !isLast) {
+                    kinds[i] = KIND_SELF_OR_DESCENDANT;
+                } else {
+                    return null;
+                }
+            }
+            return new FieldMatcher(kinds, names, descendant);
+        }
+
+        private long closure(long state) {
+            for (int i = 0; i < this.kinds.length; i += 1) {
+                if (this.kinds[i] == KIND_SELF_OR_DESCENDANT && (state & (1L << i)) != 0L) {
+                    state |= 1L << (i + 1);
+                }
+            }
+            return state;
+        }
+
+        /**
+         * @return state of the context node
+         */
+        public long start() {
+            return closure(1L);
+        }
+
+        /**
+         * @param state state of the parent
+         * @param name element name
+         * @return state of the element
+         */
+        public long next(long state, String name) {
+            long result = 0L;
+            state &= this.matchBit - 1;
+            while (state != 0L) {
+                int i = Long.numberOfTrailingZeros(state);
+                state &= state - 1;
+                int kind = this.kinds[i];
+                if (kind == KIND_SELF_OR_DESCENDANT || (this.descendant[i] && kind != KIND_ATTRIBUTE)) {
+                    result |= 1L << i;
+                }
+                if (kind == KIND_ELEMENT && (this.names[i] == null || this.names[i].equals(name))) {
+                    result |= 1L << (i + 1);
+                }
+            }
+            return closure(result);
+        }
+
+        /**
+         * @return true if the element is selected
+         */
+        public boolean isMatch(long state) {
+            return (state & this.matchBit) != 0L;
+        }
+
+        /**
+         * @return true if descendants (or attributes) of the element may be selected
+         */
+        public boolean isAlive(long state) {
+            return (state & (this.matchBit - 1)) != 0L;
+        }
+
+        /**
+         * @param state state of the parent
+         * @return true if text children of the parent are selected
+         */
+        public boolean matchesText(long state) {
+            int last = this.kinds.length - 1;
+            return last >= 0 && this.kinds[last] == KIND_TEXT && (state & (1L << last)) != 0L;
+        }
+
+        /**
+         * @param state state of the element
+         * @return true if attributes of the element may be selected
+         */
+        public boolean matchesAttributes(long state) {
+            int last = this.kinds.length - 1;
+            return last >= 0 && this.kinds[last] == KIND_ATTRIBUTE && (state & (1L << last)) != 0L;
+        }
+
+        /**
+         * @return true if an attribute with this name is selected, given matchesAttributes
+         */
+        public boolean matchesAttribute(String name) {
+            String test = this.names[this.kinds.length - 1];
+            return test == null || test.equals(name);
+        }
+    }
+
+
+    /*
+     * Expressions. Values are a List of nodes, a String, a Double or a Boolean.
+     */
+    private static abstract class Expr {
+        abstract <N> Object eval(NodeModel<N> model, N context, int position, int size);
+    }
+
+    private static class Literal extends Expr {
+        private final Object value;
+        Literal(Object value) { this.value = value; }
+        @Override
+        <N> Object eval(NodeModel<N> model, N context, int position, int size) {
+            return this.value;
+        }
+    }
+
+    private static class Step {
+        private int axis = CHILD;
+        private int test = TEST_NAME;
+        private String name = null;
+        private List<Expr> predicates = new ArrayList<>();
+
+        Step(int axis, int test, String name) {
+            this.axis = axis;
+            this.test = test;
+            this.name = name;
+        }
+
+        boolean isPositional() {
+            for (Expr predicate: this.predicates) {
+                if (predicate instanceof Literal && ((Literal) predicate).value instanceof Double) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        <N> boolean matches(NodeModel<N> model, N node) {
+            int kind = model.kind(node);
+            if (this.axis == ATTRIBUTE) {
+                return this.test == TEST_NODE || this.test == TEST_ANY || this.name.equals(model.name(node));
+            }
+            switch (this.test) {
+                case TEST_NODE: return true;
+                case TEST_TEXT: return kind == NodeModel.TEXT;
+                case TEST_ANY:  return kind == NodeModel.ELEMENT;
+                default:        return kind == NodeModel.ELEMENT && this.name.equals(model.name(node));
+            }
+        }
+
+        /**
+         * XPath sees adjacent text nodes as one text node. Like the JAXP
+         * implementation, we select the first one only.
+         * @return true if node is a text node
+         */
+        private <N> boolean addIfMatches(NodeModel<N> model, N node, boolean afterText, List<N> result) {
+            boolean isText = model.kind(node) == NodeModel.TEXT;
+            if (!(isText && afterText) && matches(model, node)) {
+                result.add(node);
+            }
+            return isText;
+        }
+
+        <N> void axisNodes(NodeModel<N> model, N context, List<N> result) {
+            switch (this.axis) {
+                case SELF:
+                    if (matches(model, context)) result.add(context);
+                    break;
+                case PARENT:
+                    N parent = model.parent(context);
+                    if (parent != null && matches(model, parent)) result.add(parent);
+                    break;
+                case ATTRIBUTE:
+                    if (model.kind(context) == NodeModel.ELEMENT) {
+                        for (N attribute: model.attributes(context)) {
+                            if (matches(model, attribute)) result.add(attribute);
+                        }
+                    }
+                    break;
+                case FOLLOWING_SIBLING:
+                    if (model.kind(context) != NodeModel.ATTRIBUTE) {
+                        boolean afterText = model.kind(context) == NodeModel.TEXT;
+                        for (N n = model.nextSibling(context); n != null; n = model.nextSibling(n)) {
+                            afterText = addIfMatches(model, n, afterText, result);
+                        }
+                    }
+                    break;
+                case CHILD:
+                    boolean afterText = false;
+                    for (N n = model.firstChild(context); n != null; n = model.nextSibling(n)) {
+                        afterText = addIfMatches(model, n, afterText, result);
+                    }
+                    break;
+                default: // DESCENDANT and DESCENDANT_OR_SELF, in document order
+                    if (this.axis == DESCENDANT_OR_SELF && matches(model, context)) {
+                        result.add(context);
+                    }
+                    N cur = model.firstChild(context);
+                    boolean isAfterText = false;
+                    while (cur != null) {
+                        boolean isText = addIfMatches(model, cur, isAfterText, result);
+                        N next = model.firstChild(cur);
+                        isAfterText = false;
+                        while (next == null && cur != context) {
+                            next = model.nextSibling(cur);
+                            if (next == null) {
+                                cur = model.parent(cur);
+                                isText = false;
+                            } else {
+                                isAfterText = isText;
+                            }
+                        }
+                        cur = next;
+                    }
+            }
+        }
+
+        <N> List<N> apply(NodeModel<N> model, List<N> contexts) {
+            List<N> result = new ArrayList<>();
+            boolean overlap = contexts.size() > 1 && this.axis != CHILD && this.axis != SELF && this.axis != ATTRIBUTE;
+            Set<N> seen = overlap ? Collections.newSetFromMap(new IdentityHashMap<>()) : null;
+            List<N> nodes = new ArrayList<>();
+            for (N context: contexts) {
+                nodes.clear();
+                axisNodes(model, context, nodes);
+                for (Expr predicate: this.predicates) {
+                    List<N> selected = new ArrayList<>();
+                    int size = nodes.size();
+                    for (int i = 0; i < size; i += 1) {
+                        Object value = predicate.eval(model, nodes.get(i), i + 1, size);
+                        if (value instanceof Double ? ((Double) value) == i + 1 : toBoolean(value)) {
+                            selected.add(nodes.get(i));
+                        }
+                    }
+                    nodes = selected;
+                }
+                for (N node: nodes) {
+                    if (seen == null || seen.add(node)) {
+                        result.add(node);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Path extends Expr {
+        private final boolean absolute;
+        private final List<Step> steps = new ArrayList<>();
+
+        Path(boolean absolute) {
+            this.absolute = absolute;
+        }
+
+        @Override
+        <N> Object eval(NodeModel<N> model, N context, int position, int size) {
+            N start = context;
+            if (this.absolute) {
+                for (N parent = model.parent(start); parent != null; parent = model.parent(start)) {
+                    start = parent;
+                }
+            }
+            List<N> nodes = new ArrayList<>(1);
+            nodes.add(start);
+            for (Step step: this.steps) {
+                nodes = step.apply(model, nodes);
+                if (nodes.isEmpty()) break;
+            }
+            return nodes;
+        }
+    }
+
+    private static class Binary extends Expr {
+        private final String operator;
+        private final Expr left, right;
+
+        Binary(String operator, Expr left, Expr right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        <N> Object eval(NodeModel<N> model, N context, int position, int size) {
+            Object a = this.left.eval(model, context, position, size);
+            if (this.operator.equals("and")) {
+                return toBoolean(a) && toBoolean(this.right.eval(model, context, position, size));
+            }
+            if (this.operator.equals("or")) {
+                return toBoolean(a) || toBoolean(this.right.eval(model, context, position, size));
+            }
+            Object b = this.right.eval(model, context, position, size);
+            return this.operator.equals("=") ? compare(model, a, b, true) : compare(model, a, b, false);
+        }
+    }
+
+    private static class Function extends Expr {
+        private final String name;
+        private final List<Expr> args;
+
+        Function(String name, List<Expr> args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        @Override
+        <N> Object eval(NodeModel<N> model, N context, int position, int size) {
+            if (this.name.equals("not")) {
+                return !toBoolean(this.args.get(0).eval(model, context, position, size));
+            }
+            if (this.name.equals("normalize-space")) {
+                String s = this.args.isEmpty() ? stringValue(model, context) :
+                    stringOf(model, this.args.get(0).eval(model, context, position, size));
+                return s.trim().replaceAll("[ \t\r\n]+", " ");
+            }
+            String a = stringOf(model, this.args.get(0).eval(model, context, position, size));
+            String b = stringOf(model, this.args.get(1).eval(model, context, position, size));
+            return this.name.equals("contains") ? a.contains(b) : a.startsWith(b);
+        }
+    }
+
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof String) {
+            return !((String) value).isEmpty();
+        } else if (value instanceof List) {
+            return !((List<?>) value).isEmpty();
+        }
+        return ((Double) value) != 0.0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <N> String stringOf(NodeModel<N> model, Object value) {
+        if (value instanceof List) {
+            List<N> nodes = (List<N>) value;
+            return nodes.isEmpty() ? "" : stringValue(model, nodes.get(0));
+        }
+        return value.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <N> boolean compare(NodeModel<N> model, Object a, Object b, boolean equal) {
+        if (a instanceof Boolean || b instanceof Boolean) {
+            return (toBoolean(a) == toBoolean(b)) == equal;
+        }
+        if (a instanceof List && b instanceof List) {
+            for (N n: (List<N>) a) {
+                String s = stringValue(model, n);
+                for (N m: (List<N>) b) {
+                    if (s.equals(stringValue(model, m)) == equal) return true;
+                }
+            }
+            return false;
+        }
+        if (b instanceof List) {
+            Object swap = a; a = b; b = swap;
+        }
+        if (a instanceof List) {
+            for (N n: (List<N>) a) {
+                if (stringValue(model, n).equals(b) == equal) return true;
+            }
+            return false;
+        }
+        return a.equals(b) == equal;
+    }
+
+
+    /**
+     * Recursive descent parser; throws UnsupportedOperationException
+     * for expressions that are not (yet) supported.
+     */
+    private static class Parser {
+        private final String s;
+        private int i = 0;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        boolean atEnd() {
+            return this.i >= this.s.length();
+        }
+
+        void skipSpace() {
+            while (!atEnd() && Character.isWhitespace(this.s.charAt(this.i))) this.i += 1;
+        }
+
+        boolean peek(String token) {
+            skipSpace();
+            return this.s.startsWith(token, this.i);
+        }
+
+        boolean accept(String token) {
+            if (peek(token)) {
+                this.i += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String token) {
+            if (!accept(token)) throw new UnsupportedOperationException("Expected " + token);
+        }
+
+        private static boolean isNameStart(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+        }
+
+        private static boolean isNameChar(char c) {
+            return isNameStart(c) || (c >= '0' && c <= '9') || c == '-' || c == '.';
+        }
+
+        String peekName() {
+            skipSpace();
+            int j = this.i;
+            if (j >= this.s.length() || !isNameStart(this.s.charAt(j))) return null;
+            while (j < this.s.length() && isNameChar(this.s.charAt(j))) j += 1;
+            return this.s.substring(this.i, j);
+        }
+
+        String name() {
+            String name = peekName();
+            if (name == null) throw new UnsupportedOperationException("Expected name");
+            this.i += name.length();
+            return name;
+        }
+
+        boolean acceptKeyword(String keyword) {
+            String name = peekName();
+            if (keyword.equals(name)) {
+                this.i += name.length();
+                return true;
+            }
+            return false;
+        }
+
+        Expr parseExpr() {
+            Expr expr = parseAnd();
+            while (acceptKeyword("or")) {
+                expr = new Binary("or", expr, parseAnd());
+            }
+            return expr;
+        }
+
+        Expr parseAnd() {
+            Expr expr = parseEquality();
+            while (acceptKeyword("and")) {
+                expr = new Binary("and", expr, parseEquality());
+            }
+            return expr;
+        }
+
+        Expr parseEquality() {
+            Expr expr = parsePrimary();
+            if (accept("!=")) {
+                expr = new Binary("!=", expr, noNumber(parsePrimary()));
+                noNumber(((Binary) expr).left);
+            } else if (accept("=")) {
+                expr = new Binary("=", expr, noNumber(parsePrimary()));
+                noNumber(((Binary) expr).left);
+            }
+            if (peek("<") || peek(">") || peek("|") || peek("+") || peek("*")) {
+                throw new UnsupportedOperationException("Operator not supported");
+            }
+            return expr;
+        }
+
+        private Expr noNumber(Expr expr) {
+            if (expr instanceof Literal && ((Literal) expr).value instanceof Double) {
+                throw new UnsupportedOperationException("Numbers compare as numbers");
+            }
+            return expr;
+        }
+
+        Expr parsePrimary() {
+            skipSpace();
+            if (atEnd()) throw new UnsupportedOperationException("Unexpected end");
+            char c = this.s.charAt(this.i);
+            if (c == '\'' || c == '"') {
+                int end = this.s.indexOf(c, this.i + 1);
+                if (end < 0) throw new UnsupportedOperationException("Unterminated string");
+                String value = this.s.substring(this.i + 1, end);
+                this.i = end + 1;
+                return new Literal(value);
+            }
+            if (c >= '0' && c <= '9') {
+                int j = this.i;
+                while (j < this.s.length() && Character.isDigit(this.s.charAt(j))) j += 1;
+                double value = Double.parseDouble(this.s.substring(this.i, j));
+                this.i = j;
+                return new Literal(value);
+            }
+            if (c == '(') {
+                this.i += 1;
+                Expr expr = parseExpr();
+                expect(")");
+                if (peek("[") || peek("/")) throw new UnsupportedOperationException("Filter expression");
+                return expr;
+            }
+            String name = peekName();
+            if (name != null && !name.equals("text") && !name.equals("node")) {
+                int save = this.i;
+                this.i += name.length();
+                if (accept("(")) {
+                    return parseFunction(name);
+                }
+                this.i = save;
+            }
+            return parsePath();
+        }
+
+        Expr parseFunction(String name) {
+            List<Expr> args = new ArrayList<>();
+            if (!accept(")")) {
+                do {
+                    args.add(parseExpr());
+                } while (accept(","));
+                expect(")");
+            }
+            for (Expr arg: args) {
+                noNumber(arg);
+            }
+            if ((name.equals("contains") || name.equals("starts-with")) && args.size() == 2) {
+                return new Function(name, args);
+            } else if (name.equals("not") && args.size() == 1) {
+                return new Function(name, args);
+            } else if (name.equals("normalize-space") && args.size() <= 1) {
+                return new Function(name, args);
+            }
+            throw new UnsupportedOperationException("Function not supported: " + name);
+        }
+
+        Path parsePath() {
+            Path path;
+            skipSpace();
+            if (accept("//")) {
+                path = new Path(true);
+                addStep(path, true);
+            } else if (accept("/")) {
+                path = new Path(true);
+                if (!startsStep()) return path;
+                addStep(path, false);
+            } else {
+                path = new Path(false);
+                addStep(path, false);
+            }
+            while (true) {
+                if (accept("//")) {
+                    addStep(path, true);
+                } else if (accept("/")) {
+                    addStep(path, false);
+                } else {
+                    break;
+                }
+            }
+            return path;
+        }
+
+        private boolean startsStep() {
+            skipSpace();
+            if (atEnd()) return false;
+            char c = this.s.charAt(this.i);
+            return c == '.' || c == '@' || c == '*' || isNameStart(c);
+        }
+
+        /**
+         * "//x" is short for "/descendant-or-self::node()/x", which equals
+         * "/descendant::x" if x has no position predicates.
+         */
+        private void addStep(Path path, boolean descendants) {
+            Step step = parseStep();
+            if (descendants) {
+                if (step.axis == CHILD && !step.isPositional()) {
+                    step.axis = DESCENDANT;
+                } else {
+                    path.steps.add(new Step(DESCENDANT_OR_SELF, TEST_NODE, null));
+                }
+            }
+            path.steps.add(step);
+        }
+
+        Step parseStep() {
+            skipSpace();
+            if (accept("..")) {
+                return new Step(PARENT, TEST_NODE, null);
+            }
+            if (accept(".")) {
+                return new Step(SELF, TEST_NODE, null);
+            }
+            int axis = CHILD;
+            if (accept("@")) {
+                axis = ATTRIBUTE;
+            } else {
+                String name = peekName();
+                if (name != null) {
+                    int save = this.i;
+                    this.i += name.length();
+                    if (accept("::")) {
+                        axis = axisNumber(name);
+                    } else {
+                        this.i = save;
+                    }
+                }
+            }
+            Step step;
+            if (accept("*")) {
+                step = new Step(axis, TEST_ANY, null);
+            } else {
+                String name = name();
+                if (accept("(")) {
+                    expect(")");
+                    if (name.equals("text")) {
+                        step = new Step(axis, TEST_TEXT, null);
+                    } else if (name.equals("node")) {
+                        step = new Step(axis, TEST_NODE, null);
+                    } else {
+                        throw new UnsupportedOperationException("Node test not supported: " + name);
+                    }
+                    if (axis == ATTRIBUTE && step.test == TEST_TEXT) {
+                        throw new UnsupportedOperationException("Attributes have no text nodes");
+                    }
+                } else {
+                    if (peek(":")) throw new UnsupportedOperationException("Namespaces not supported");
+                    step = new Step(axis, TEST_NAME, name);
+                }
+            }
+            while (accept("[")) {
+                step.predicates.add(parseExpr());
+                expect("]");
+            }
+            return step;
+        }
+
+        private int axisNumber(String name) {
+            switch (name) {
+                case "child":              return CHILD;
+                case "descendant":         return DESCENDANT;
+                case "descendant-or-self": return DESCENDANT_OR_SELF;
+                case "self":               return SELF;
+                case "parent":             return PARENT;
+                case "attribute":          return ATTRIBUTE;
+                case "following-sibling":  return FOLLOWING_SIBLING;
+                default: throw new UnsupportedOperationException("Axis not supported: " + name);
+            }
+        }
+    }
+
+}
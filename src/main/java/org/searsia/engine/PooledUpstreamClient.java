@@ -0,0 +1,370 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import org.json.JSONObject;
+
+/**
+ * Upstream client that keeps HTTP connections alive and reuses them for
+ * later requests to the same host. The number of concurrent connections
+ * per host is limited; requests over the limit wait in a queue until a
+ * connection is released, i.e., until the previous response body is read.
+ * Response bodies are read as they arrive, without blocking a thread, and
+ * the download stops as soon as the body exceeds the maximum size.
+ * The client asks for compressed responses and decodes them. Cancelling
+ * the future of a request aborts the request, or removes it from the queue.
+ * Each request has a deadline for the whole exchange, including the time
+ * in the queue and the body: a host that stalls halfway the body gets
+ * cut off, and its connection is released.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class PooledUpstreamClient implements UpstreamClient {
+
+    public final static int defaultMAXPERHOST = 8;
+
+    // headers that are set by the HTTP client itself
+    private final static Set<String> restrictedHeaders =
+        new HashSet<>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+    private final HttpClient client;
+    private final int maxPerHost;
+    private final Map<String, HostPool> pools = new ConcurrentHashMap<>();
+    private final LongAdder nrOfRequests = new LongAdder();
+    private final LongAdder nrOfErrors = new LongAdder();
+
+
+    public PooledUpstreamClient() {
+        this(defaultMAXPERHOST, null);
+    }
+
+    /**
+     * @param maxPerHost maximum number of concurrent connections per host
+     * @param executor executor for asynchronous tasks, or null for the default
+     */
+    public PooledUpstreamClient(int maxPerHost, Executor executor) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)  // one request per connection, so per-host limits are connection limits
+            .followRedirects(HttpClient.Redirect.NORMAL); // no connect timeout: the deadline of each request covers it
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        this.client = builder.build();
+        this.maxPerHost = maxPerHost;
+    }
+
+
+    @Override
+    public CompletableFuture<UpstreamResponse> fetch(UpstreamRequest request) {
+        HttpRequest httpRequest;
+        try {
+            httpRequest = httpRequest(request);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException(e.getMessage()));
+        }
+        URI uri = request.getURI();
+        String hostKey = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+        HostPool pool = this.pools.computeIfAbsent(hostKey, key -> new HostPool());
+        CompletableFuture<UpstreamResponse> future = new CompletableFuture<>();
+        int deadline = request.getTimeout();
+        CompletableFuture.delayedExecutor(deadline, TimeUnit.MILLISECONDS).execute(() -> {
+            if (future.completeExceptionally(new HttpTimeoutException("Request timed out after " + deadline + " ms"))) {
+                this.nrOfErrors.increment();
+            }
+        });
+        pool.submit(future, () -> send(pool, request, httpRequest, future));
+        return future;
+    }
+
+
+    private HttpRequest httpRequest(UpstreamRequest request) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI())
+            .timeout(Duration.ofMillis(request.getTimeout()));
+        for (Map.Entry<String, String> entry: request.getHeaders().entrySet()) {
+            if (!restrictedHeaders.contains(entry.getKey().toLowerCase())) {
+                builder.setHeader(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!request.getHeaders().keySet().stream().anyMatch(key -> key.equalsIgnoreCase("Accept-Encoding"))) {
+            builder.setHeader("Accept-Encoding", ContentDecoder.acceptEncoding);
+        }
+        if (request.isPost()) {
+            if (!request.getHeaders().keySet().stream().anyMatch(key -> key.equalsIgnoreCase("Content-Type"))) {
+                builder.setHeader("Content-Type", "application/x-www-form-urlencoded"); // like HttpURLConnection
+            }
+            builder.POST(HttpRequest.BodyPublishers.ofString(request.getPostString(), StandardCharsets.UTF_8));
+        } else {
+            builder.GET();
+        }
+        return builder.build();
+    }
+
+
+    /**
+     * Sends the request, if it is still wanted
+     * @return true if the request took the connection slot
+     */
+    private boolean send(HostPool pool, UpstreamRequest request, HttpRequest httpRequest, 
+            CompletableFuture<UpstreamResponse> future) {
+        if (future.isDone()) { // cancelled or timed out while waiting
+            return false;
+        }
+        this.nrOfRequests.increment();
+        int maxBytes = request.getMaxBytes();
+        PageSubscriber subscriber = new PageSubscriber(maxBytes);
+        CompletableFuture<HttpResponse<PageSubscriber.Page>> exchange =
+            this.client.sendAsync(httpRequest, info -> subscriber);
+        future.whenComplete((response, e) -> {
+            if (e != null) { // cancelled or timed out: stop reading, so the exchange completes
+                subscriber.abort(e);
+                exchange.cancel(true);
+            }
+        });
+        exchange.whenComplete((response, e) -> { // completes exactly once, also if aborted
+            try {
+                complete(future, response, e, maxBytes);
+            } finally {
+                pool.release(); // after completing, so the response does not wait for the queue
+            }
+        });
+        return true;
+    }
+
+
+    private void complete(CompletableFuture<UpstreamResponse> future, HttpResponse<PageSubscriber.Page> response,
+            Throwable e, int maxBytes) {
+        if (future.isDone()) {
+            return;
+        }
+        if (e != null) {
+            this.nrOfErrors.increment();
+            future.completeExceptionally(unwrap(e));
+        } else {
+            PageSubscriber.Page page = response.body();
+            String encoding = response.headers().firstValue("Content-Encoding").orElse(null);
+            try {
+                PageBuffer body = ContentDecoder.decode(encoding, page.buffer, maxBytes);
+                future.complete(new UpstreamResponse(response.statusCode(), response.headers().map(),
+                    body, page.millis, page.buffer.size()));
+            } catch (IOException | RuntimeException ex) {
+                this.nrOfErrors.increment();
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+
+
+    private static Throwable unwrap(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return e.getCause();
+        }
+        return e;
+    }
+
+
+    @Override
+    public JSONObject toJsonHealth() {
+        int active = 0, queued = 0;
+        for (HostPool pool: this.pools.values()) {
+            synchronized (pool) {
+                active += pool.active;
+                queued += pool.waiting.size();
+            }
+        }
+        JSONObject health = new JSONObject();
+        health.put("maxperhost", this.maxPerHost);
+        health.put("hosts",      this.pools.size());
+        health.put("active",     active);
+        health.put("queued",     queued);
+        health.put("requests",   this.nrOfRequests.sum());
+        health.put("errors",     this.nrOfErrors.sum());
+        return health;
+    }
+
+
+    /**
+     * Connection slots for a single host. A waiting request leaves the
+     * queue as soon as its future is done, i.e., cancelled or timed out.
+     */
+    private class HostPool {
+
+        private class Waiting {
+            private final CompletableFuture<?> future;
+            private final BooleanSupplier task;
+
+            private Waiting(CompletableFuture<?> future, BooleanSupplier task) {
+                this.future = future;
+                this.task = task;
+            }
+        }
+
+        private int active = 0;
+        private final Set<Waiting> waiting = new LinkedHashSet<>(); // in order of arrival
+
+        /**
+         * @param future future of the request
+         * @param task sends the request; returns false if it did not take the slot
+         */
+        private void submit(CompletableFuture<?> future, BooleanSupplier task) {
+            Waiting entry = new Waiting(future, task);
+            boolean queued;
+            synchronized (this) {
+                queued = this.active >= maxPerHost;
+                if (queued) {
+                    this.waiting.add(entry);
+                } else {
+                    this.active += 1;
+                }
+            }
+            if (queued) {
+                future.whenComplete((response, e) -> forget(entry));
+            } else if (!task.getAsBoolean()) {
+                release();
+            }
+        }
+
+        private synchronized void forget(Waiting entry) {
+            this.waiting.remove(entry);
+        }
+
+        /**
+         * Hands the slot to the next waiting request, in a loop rather than
+         * recursively, so a long queue of expired requests cannot overflow the stack.
+         */
+        private void release() {
+            while (true) {
+                Waiting next = null;
+                synchronized (this) {
+                    Iterator<Waiting> iterator = this.waiting.iterator();
+                    while (iterator.hasNext() && next == null) {
+                        Waiting entry = iterator.next();
+                        iterator.remove();
+                        if (!entry.future.isDone()) {
+                            next = entry;
+                        }
+                    }
+                    if (next == null) {
+                        this.active -= 1;
+                        return;
+                    }
+                }
+                if (next.task.getAsBoolean()) {
+                    return;  // next request took over the slot
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Reads the response body into a page buffer as the bytes arrive
+     */
+    private static class PageSubscriber implements HttpResponse.BodySubscriber<PageSubscriber.Page> {
+
+        private static class Page {
+            private PageBuffer buffer;
+            private long millis;
+        }
+
+        private final Page page = new Page();
+        private final CompletableFuture<Page> result = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+        private long start;
+
+        private PageSubscriber(int maxBytes) {
+            this.page.buffer = new PageBuffer(maxBytes);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (this.result.isDone()) { // aborted before the body started
+                subscription.cancel();
+                return;
+            }
+            this.start = System.currentTimeMillis();
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            if (this.result.isDone()) { return; }
+            try {
+                for (ByteBuffer buffer: buffers) {
+                    this.page.buffer.append(buffer);
+                }
+            } catch (IOException e) {
+                this.subscription.cancel(); // too large: stop reading
+                this.result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            this.result.completeExceptionally(e);
+        }
+
+        @Override
+        public void onComplete() {
+            this.page.millis = System.currentTimeMillis() - this.start;
+            this.result.complete(this.page);
+        }
+
+        /**
+         * Stops reading the body, for instance if the deadline passed
+         */
+        private void abort(Throwable e) {
+            this.result.completeExceptionally(e);
+            Flow.Subscription subscription = this.subscription;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public CompletionStage<Page> getBody() {
+            return this.result;
+        }
+    }
+
+}
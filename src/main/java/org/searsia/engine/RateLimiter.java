@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Token bucket rate limiting, based on:
+ * http://stackoverflow.com/questions/667508/whats-a-good-rate-limiting-algorithm
+ * The allowance and the time of the last request are replaced together by
+ * compare-and-set, so concurrent requests never overrun the rate, and
+ * never need a lock.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class RateLimiter {
+
+    private final static class Bucket {
+        private final double allowance;
+        private final long lastUsed; // Unix time
+
+        private Bucket(double allowance, long lastUsed) {
+            this.allowance = allowance;
+            this.lastUsed = lastUsed;
+        }
+
+        /**
+         * @return allowance at time now, at most rate
+         */
+        private double allowanceAt(long now, int rate, long per) {
+            long timePassed = now - this.lastUsed;
+            if (timePassed < 0) { // another thread was just before us
+                timePassed = 0;
+            }
+            double allowance = this.allowance + (((double) timePassed / per)) * rate;
+            return allowance > rate ? rate : allowance;
+        }
+    }
+
+    private final long per;
+    private final AtomicReference<Bucket> bucket;
+
+    /**
+     * @param per period in milliseconds, in which rate requests are allowed
+     * @param allowance initial number of requests allowed
+     */
+    public RateLimiter(long per, double allowance) {
+        this.per = per;
+        this.bucket = new AtomicReference<>(new Bucket(allowance, System.currentTimeMillis()));
+    }
+
+    /**
+     * Takes one request from the allowance, if possible.
+     * @param rate requests per period
+     * @return true if the request is allowed
+     */
+    public boolean tryAcquire(int rate) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Bucket old = this.bucket.get();
+            long time = Math.max(now, old.lastUsed);
+            double allowance = old.allowanceAt(time, rate, this.per);
+            boolean allowed = allowance > 1;
+            if (allowed) {
+                allowance -= 1;
+            }
+            if (this.bucket.compareAndSet(old, new Bucket(allowance, time))) {
+                return allowed;
+            }
+        }
+    }
+
+    /**
+     * @param rate requests per period
+     * @return current allowance, without taking a request
+     */
+    public int getAllowance(int rate) {
+        return (int) this.bucket.get().allowanceAt(System.currentTimeMillis(), rate, this.per);
+    }
+
+    /**
+     * @return time of the last request (Unix time)
+     */
+    public long getLastUsed() {
+        return this.bucket.get().lastUsed;
+    }
+
+    /**
+     * Takes over the allowance of another limiter, keeping the time of the last request.
+     * @param other
+     */
+    public void setAllowance(RateLimiter other) {
+        double allowance = other.bucket.get().allowance;
+        this.bucket.updateAndGet(old -> new Bucket(allowance, old.lastUsed));
+    }
+
+}
@@ -16,16 +16,16 @@
 
 package org.searsia.engine;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -38,15 +38,17 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import javax.xml.xpath.XPath;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.jsoup.Jsoup;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -68,7 +70,19 @@ public class Resource implements Comparable<Resource> {
     // For rate limiting: Default = 1000 queries per day
     private final static int defaultRATE = 1000;    // unit: queries
     private final static int defaultPER = 86400000; // unit: miliseconds (86400000 miliseconds is one day)
+    private final static int defaultTIMEOUT = 9000;  // unit: miliseconds (connect and read timeout, maximum)
+    private final static int defaultMINTIMEOUT = 1000; // unit: miliseconds (minimum adaptive timeout)
+    private final static int defaultTIMEOUTFACTOR = 4;   // adaptive timeout is this factor times the 99th percentile latency
+    private final static int defaultLATENCYSAMPLES = 20; // unit: requests (before timeouts adapt)
+    private final static int defaultLATENCYPERIOD = 3600000; // unit: miliseconds (latency histogram period, one hour)
+    private final static int defaultBREAKERWINDOW = 20;      // unit: requests (circuit breaker sliding window)
+    private final static int defaultBREAKERMINCALLS = 5;     // unit: requests (before the circuit may open)
+    private final static double defaultBREAKERTHRESHOLD = 0.5; // fraction of failed requests that opens the circuit
+    private final static int defaultBREAKEROPEN = 30000;     // unit: miliseconds (before a probe request)
+    private final static int defaultMAXBYTES = 4194304; // unit: bytes (maximum page size, 4 MB)
+    private final static int defaultINDEXOFFSET = 1;    // first page number (opensearch standard)
     private final static DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+    private static UpstreamClient upstreamClient = new PooledUpstreamClient();
     
 	// TODO: private static final Pattern queryPattern = Pattern.compile("\\{searchTerms\??\\}");
 
@@ -93,20 +107,29 @@ public class Resource implements Comparable<Resource> {
 	private Float prior = null;
 	private String rerank = null;
 	private int rate = defaultRATE;
+	private int maxBytes = defaultMAXBYTES;
+	private int minTimeout = defaultMINTIMEOUT;
+	private int maxTimeout = defaultTIMEOUT;
+	private boolean hedge = false;
+	private volatile String definitionETag = null;     // validators of the definition, for conditional requests
+	private volatile String definitionModified = null;
+	private int indexOffset = defaultINDEXOFFSET;
 	private boolean deleted = false;
     private String resultTypes = null;
+
+    // templates, parsed once
+    private Template apiTemplate = null;
+    private Template postTemplate = null;
+    private volatile XPathPool itemPath = null; // compiled at first use
+    private volatile ExtractionPlan extractionPlan = null; // compiled at first use
+    private volatile Signer signer = null; // set up at first signed request
 	
-	// internal data shared for health report
-	private String   nextQuery = null;
-    private String   lastMessage = null;
-	private double   allowance = defaultRATE / 2;
-	private long      lastUsed = new Date().getTime(); // Unix time
-    private long    lastUsedOk = lastUsed; 
-    private long lastUsedError = lastUsed; 
-    private long   lastUpdated = lastUsed;
-    private long       upsince = lastUsed;
-    private int      nrOfError = 0; 
-    private int         nrOfOk = 0; 
+	// runtime state, shared by request threads for the health report
+	private final ResourceStats stats = new ResourceStats();
+	private final RateLimiter limiter = new RateLimiter(defaultPER, defaultRATE / 2);
+	private final CircuitBreaker breaker = new CircuitBreaker(defaultBREAKERWINDOW, defaultBREAKERMINCALLS,
+	    defaultBREAKERTHRESHOLD, defaultBREAKEROPEN);
+	private final LatencyHistogram latency = new LatencyHistogram(defaultLATENCYPERIOD);
 
 	public Resource(String urlAPITemplate) {
 		this.urlAPITemplate = urlAPITemplate;
@@ -114,6 +137,7 @@ public class Resource implements Comparable<Resource> {
 		this.name = null;
 		this.mimeType = SearchResult.SEARSIA_MIME_TYPE;
 		this.testQuery = defaultTestQuery;
+		compileTemplates();
 	}
 	
 	public Resource(JSONObject jo) throws XPathExpressionException, JSONException {	
@@ -138,6 +162,11 @@ public class Resource implements Comparable<Resource> {
         if (jo.has("deleted"))         this.deleted         = jo.getBoolean("deleted");
 		if (jo.has("prior"))           this.prior           = (float) jo.getDouble("prior");
 		if (jo.has("maxqueriesperday")) this.rate           = jo.getInt("maxqueriesperday");
+		if (jo.has("maxbytes"))        this.maxBytes        = jo.getInt("maxbytes");
+		if (jo.has("mintimeout"))      this.minTimeout      = jo.getInt("mintimeout");
+		if (jo.has("maxtimeout"))      this.maxTimeout      = jo.getInt("maxtimeout");
+		if (jo.has("hedge"))           this.hedge           = jo.getBoolean("hedge");
+		if (jo.has("indexoffset"))     this.indexOffset     = jo.getInt("indexoffset");
 		if (jo.has("extractors")) {
 			JSONObject json = (JSONObject) jo.get("extractors");
 			Iterator<?> keys = json.keys();
@@ -182,13 +211,20 @@ public class Resource implements Comparable<Resource> {
 				throw new IllegalArgumentException("Poststring not allowed for DirectAccess");
 			}
 		}
+		compileTemplates();
 	}
 	
 	
 	public void setUrlAPITemplate(String urlTemplate) {
 		this.urlAPITemplate = urlTemplate;
+		compileTemplates();
 	}
 
+    private void compileTemplates() {
+        this.apiTemplate  = (this.urlAPITemplate == null) ? null : new Template(this.urlAPITemplate);
+        this.postTemplate = (this.postString == null) ? null : new Template(this.postString);
+    }
+
 
 	/* 
 	 * Setters no longer used: Everything now via JSON Objects
@@ -261,22 +297,22 @@ public class Resource implements Comparable<Resource> {
     }
 
 	public void setLastUpdatedToNow() {
-	    this.lastUpdated = new Date().getTime();
+	    this.stats.setLastUpdated(new Date().getTime());
 	}
 
     public void setLastUpdatedToDateString(String date) {
         try {
-            this.lastUpdated = dateFormat.parse(date).getTime();
+            this.stats.setLastUpdated(dateFormat.parse(date).getTime());
         } catch (ParseException e) { }
     }
 
     public void setUpSinceToNow() {
-        this.upsince = new Date().getTime();
+        this.stats.setUpSince(new Date().getTime());
     }
 
     public void setUpSinceDateString(String date) {
         try {
-            this.upsince = dateFormat.parse(date).getTime();
+            this.stats.setUpSince(dateFormat.parse(date).getTime());
         } catch (ParseException e) { }
     }
 
@@ -317,9 +353,7 @@ public class Resource implements Comparable<Resource> {
 
 
     private void handleSearchError(String message, SearchResult result, String debugInfo) throws SearchException {
-        this.nrOfError += 1;
-        this.lastUsedError = new Date().getTime();
-        this.lastMessage = message;
+        this.stats.error(message);
         result.setError(message);
         if (debugInfo == null) {
             throw new SearchException(message);
@@ -332,11 +366,10 @@ public class Resource implements Comparable<Resource> {
 
 
 	public SearchResult randomSearch(String debugInfo) throws SearchException {
-		if (this.nextQuery == null) {
-			this.nextQuery = this.testQuery;
+		String thisQuery = this.stats.takeNextQuery(); // so, nextQuery will be null in case of a searchexception
+		if (thisQuery == null) {
+			thisQuery = this.testQuery;
 		}
-		String thisQuery = this.nextQuery;
-		this.nextQuery = null; // so, nextQuery will be null in case of a searchexception
 		SearchResult result = search(thisQuery, debugInfo);
         if (this.getDirectAccess() != null) {
         	Resource redirectResource = result.getResource();
@@ -369,7 +402,7 @@ public class Resource implements Comparable<Resource> {
                 }
             }
 		} else {
-		    this.nextQuery = result.randomTerm(thisQuery);
+		    this.stats.setNextQuery(result.randomTerm(thisQuery));
 		}		
 		return result;
 	}
@@ -385,7 +418,21 @@ public class Resource implements Comparable<Resource> {
 	}
 
 	public SearchResult search(String query, String debug, Integer startPage) throws SearchException {
-        SearchResult result;
+        return await(searchAsync(query, debug, startPage));
+	}
+
+	/**
+	 * Search without blocking: The page is fetched by the upstream client.
+	 * @param query
+	 * @param debug
+	 * @param startPage
+	 * @return future search result; it fails with a SearchException
+	 */
+	public CompletableFuture<SearchResult> searchAsync(String query, String debug, Integer startPage) {
+		String url, postString = "";
+		if (!this.breaker.allowRequest()) { // fail fast if the engine is down, before using up the rate limit
+			return CompletableFuture.failedFuture(new SearchException("Circuit open: too many errors"));
+		}
 		try {
 	        if (rateLimitReached()) {
 	            throw new SearchException("Too many queries");
@@ -393,46 +440,84 @@ public class Resource implements Comparable<Resource> {
 	        if (this.urlAPITemplate == null) {
 		        throw new SearchException("No API Template");
 		    }
-			String url = fillTemplate(this.urlAPITemplate, URLEncoder.encode(query, "UTF-8"), startPage);
-			String postString = "";
+			url = fillTemplate(this.apiTemplate, URLEncoder.encode(query, "UTF-8"), startPage);
 			String postQuery;
 			if (this.postString != null && !this.postString.equals("")) {
 				if (this.postQueryEncode != null) {
 					if (this.postQueryEncode.equals("application/x-www-form-urlencoded")) {
 						postQuery = URLEncoder.encode(query, "UTF-8");
 					} else if (this.postQueryEncode.equals("application/json")) {
-						postQuery = query.replaceAll("\"", "\\\\\\\\\"");  // really? yes, really.
+						postQuery = query.replace("\"", "\\\"");
 					} else {
 						postQuery = query;
 					}
 				} else {
 					postQuery = URLEncoder.encode(query, "UTF-8");
 				}
-				postString = fillTemplate(this.postString, postQuery, startPage);
+				postString = fillTemplate(this.postTemplate, postQuery, startPage);
+			}
+		} catch (Exception e) {  // catch all, also runtime exceptions
+			this.breaker.notSent();
+			return CompletableFuture.failedFuture(searchFailure(e));
+		}
+		final String pageUrl = url;
+		final SearchTiming timing = new SearchTiming();
+		return fetchPage(url, postString, this.headers, true).thenApply(page -> {
+			SearchResult result;
+			timing.fetched(page.size());
+			try {
+	            if (this.mimeType != null && this.mimeType.equals(SearchResult.SEARSIA_MIME_TYPE)) {
+	            	result = searsiaSearch(page, debug);
+	            } else {
+	            	result = xpathSearch(pageUrl, page, debug, timing);
+	            }
+			} catch (IOException | XPathExpressionException e) {
+				throw new CompletionException(e);
 			}
-			String page = getCompletePage(url, postString, this.headers);
-            if (this.mimeType != null && this.mimeType.equals(SearchResult.SEARSIA_MIME_TYPE)) {
-            	result = searsiaSearch(page, debug);
-            } else {
-            	result = xpathSearch(url, page, debug);
-            }
             if (this.rerank != null && query != null) {
                 result.scoreReranking(query, this.rerank);
             }
+            timing.extracted();
+            result.setTiming(timing);
+            return result;
+		}).handle((result, e) -> {
+			if (e != null) {
+				this.breaker.failure();
+				throw new CompletionException(searchFailure(unwrap(e)));
+			}
+			this.breaker.success();
             if (!result.getHits().isEmpty()) {
-                this.nrOfOk += 1; // only success if at least one result
-                this.lastUsedOk = new Date().getTime();                
+                this.stats.success(); // only success if at least one result
             }
-		} catch (Exception e) {  // catch all, also runtime exceptions
-	        this.nrOfError += 1;
-	        this.lastUsedError = new Date().getTime();
-	        SearchException se = createPrivateSearchException(e);
-		    this.lastMessage = se.getMessage();
-			throw se;
+			result.setQuery(query);
+	        result.setResourceId(this.getId());
+	        return result;
+		});
+	}
+
+	private SearchException searchFailure(Throwable e) {
+        SearchException se = createPrivateSearchException(e);
+        this.stats.error(se.getMessage());
+		return se;
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		while (e instanceof CompletionException && e.getCause() != null) {
+			e = e.getCause();
+		}
+		return e;
+	}
+
+	private static <T> T await(CompletableFuture<T> future) throws SearchException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = unwrap(e);
+			if (cause instanceof SearchException) {
+				throw (SearchException) cause;
+			}
+			throw new SearchException(cause.toString());
 		}
-		result.setQuery(query);
-        result.setResourceId(this.getId());
-        return result;
 	}
 
 	public String redirectSearch(String query) throws SearchException {
@@ -445,13 +530,9 @@ public class Resource implements Comparable<Resource> {
 		}
         String url = null;
         try {
-            url = fillTemplate(this.urlAPITemplate, URLEncoder.encode(query, "UTF-8"), startPage);
+            url = fillTemplate(this.apiTemplate, URLEncoder.encode(query, "UTF-8"), startPage);
         } catch (Exception e) {  // catch all, also runtime exceptions
-	        this.nrOfError += 1;
-	        this.lastUsedError = new Date().getTime();
-	        SearchException se = createPrivateSearchException(e);
-		    this.lastMessage = se.getMessage();
-			throw se;
+			throw searchFailure(e);
 		}
         return url;
 	}
@@ -461,8 +542,8 @@ public class Resource implements Comparable<Resource> {
 			throw new SearchException("Engine is not a searsia engine: " + this.id);
 		}
 		try {
-			String url = fillTemplate(this.urlAPITemplate, "");
-			String page = getCompletePage(url, this.postString, this.headers);
+			String url = fillTemplate(this.apiTemplate, "");
+			PageBuffer page = getCompletePage(url, this.postString, this.headers);
 			return searsiaSearch(page, null);
 		} catch (Exception e) {  // catch all, also runtime exceptions
 			throw createPrivateSearchException(e);
@@ -471,6 +552,18 @@ public class Resource implements Comparable<Resource> {
 
 	
 	public Resource searchResource(String resourceid) throws SearchException {
+		return searchResource(resourceid, null);
+	}
+
+	/**
+	 * Gets a resource definition, using a conditional request if we already know the resource:
+	 * If it did not change, the definition is not parsed again.
+	 * @param resourceid
+	 * @param known earlier definition of the resource, or null
+	 * @return resource, or known if it did not change
+	 * @throws SearchException
+	 */
+	public Resource searchResource(String resourceid, Resource known) throws SearchException {
 		if (!this.mimeType.equals(SearchResult.SEARSIA_MIME_TYPE)) {
 			throw new SearchException("Resource is not a searsia engine: " + this.getId());
 		}
@@ -484,11 +577,23 @@ public class Resource implements Comparable<Resource> {
         try {
             String newRid = URLEncoder.encode(resourceid, "UTF-8");
             url = url.substring(0, lastIndex) + url.substring(lastIndex).replaceFirst(rid, newRid);
-            url = fillTemplate(url, "", null);
-       		String jsonPage = getCompletePage(url, this.postString, this.headers);
-    		JSONObject json = new JSONObject(jsonPage);
+            url = fillTemplate(new Template(url), "", null);
+            Map<String, String> headers = this.headers;
+            if (known != null && (known.definitionETag != null || known.definitionModified != null)) {
+                headers = new LinkedHashMap<>(this.headers);
+                if (known.definitionETag != null) headers.put("If-None-Match", known.definitionETag);
+                if (known.definitionModified != null) headers.put("If-Modified-Since", known.definitionModified);
+            }
+       		PageBuffer page = getCompletePage(url, this.postString, headers);
+       		if (page.isNotModified() && known != null) {
+       		    known.setLastUpdatedToNow();
+       		    return known;
+       		}
+    		JSONObject json = new JSONObject(new JSONTokener(page.getReader()));
     		if (json.has("resource")) {
         		engine = new Resource(json.getJSONObject("resource"));
+        		engine.definitionETag = page.getETag();
+        		engine.definitionModified = page.getLastModified();
     		}
 		} catch (IOException e) {
 		    String message = e.getMessage();
@@ -516,12 +621,12 @@ public class Resource implements Comparable<Resource> {
         return engine;
 	}
 
-	private SearchResult searsiaSearch(String jsonPage, String debug) throws XPathExpressionException, JSONException {
+	private SearchResult searsiaSearch(PageBuffer page, String debug) throws XPathExpressionException, JSONException {
 		SearchResult result = new SearchResult();
 		if (debug != null && debug.equals("response")) {
-			result.setDebugOut(jsonPage);
+			result.setDebugOut(page.toString());
 		}
-		JSONObject json = new JSONObject(jsonPage);
+		JSONObject json = new JSONObject(new JSONTokener(page.getReader()));
 		JSONArray hits  = new JSONArray();
 		try {
             hits  = json.getJSONArray("hits");
@@ -540,12 +645,18 @@ public class Resource implements Comparable<Resource> {
 	}
 	
 
-	private SearchResult xpathSearch(String url, String page, String debug)
+	private SearchResult xpathSearch(String url, PageBuffer page, String debug, SearchTiming timing)
 			throws IOException, XPathExpressionException {
 		Document document = null;
 		if (this.mimeType == null) {
 		    throw new IOException("No MIME Type provided.");
 		}
+		if (this.mimeType.equals("text/html") && !"xml".equals(debug) && hasNativePaths()) {
+		    return htmlSearch(url, page, debug, timing);  // no W3C DOM needed
+		}
+		if (!"xml".equals(debug) && hasNativePaths() && isStreamType(this.mimeType)) {
+		    return streamSearch(url, page, debug, timing);  // no W3C DOM needed
+		}
 		if (this.mimeType.equals("application/xml")) {
 		    document = parseDocumentXML(page);
 		} else if (this.mimeType.equals("text/html")) {
@@ -564,17 +675,16 @@ public class Resource implements Comparable<Resource> {
 		if (document == null) {
 			throw new IOException("Error parsing document. Wrong mimetype?");
 		}
+		timing.parsed();
 		SearchResult result = new SearchResult();
 		if (debug != null) {
 			if (debug.equals("xml")) {
     			result.setDebugOut(DOMBuilder.DOM2String(document));
 			} else if (debug.equals("response")) {
-				result.setDebugOut(page);
+				result.setDebugOut(page.toString());
 			}
 		}
-		XPathFactory xFactory = XPathFactory.newInstance();
-		XPath xpath = xFactory.newXPath();
-		NodeList xmlNodeList = (NodeList) xpath.evaluate(this.itemXpath, document, XPathConstants.NODESET);
+		NodeList xmlNodeList = (NodeList) getItemPath().evaluate(document, XPathConstants.NODESET);
 		for (int i = 0; i < xmlNodeList.getLength() && i < 30; i++) {
 			Node item = xmlNodeList.item(i);
 			result.addHit(extractHit(item));
@@ -582,6 +692,137 @@ public class Resource implements Comparable<Resource> {
 		return result;
 	}
 	
+    /**
+     * Searches HTML using jsoup only, which is faster than converting
+     * the page to a W3C DOM first.
+     */
+	private SearchResult htmlSearch(String url, PageBuffer page, String debug, SearchTiming timing) throws IOException, XPathExpressionException {
+        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(page.getInputStream(), charsetName(page), url);
+        timing.parsed();
+		SearchResult result = new SearchResult();
+		if ("response".equals(debug)) {
+			result.setDebugOut(page.toString());
+		}
+		extractHits(JsoupModel.instance, jsoupDoc, result);
+		return result;
+	}
+
+	private boolean isStreamType(String mimeType) throws XPathExpressionException {
+	    if (mimeType.equals("application/xml")) { // the DOM has comments, which NodeModels do not have
+	        return !getItemPath().getNativePath().hasNodeTest() && !hasNodeTest();
+	    }
+	    return mimeType.equals("application/json") || mimeType.equals("application/x-javascript") ||
+	           mimeType.equals("application/html+json") || mimeType.equals("application/json+html");
+	}
+
+	/**
+	 * Searches XML, JSON, Javascript, and HTML with JSON without a W3C DOM. If
+	 * the paths allow it, hits are extracted while the page is read, and
+	 * reading stops after 30 items.
+	 */
+	private SearchResult streamSearch(String url, PageBuffer page, String debug, SearchTiming timing) throws IOException, XPathExpressionException {
+		SearchResult result = new SearchResult();
+		if ("response".equals(debug)) {
+			result.setDebugOut(page.toString());
+		}
+		PathExpression.ItemMatcher matcher = getItemMatcher();
+		ItemCollector collector;
+		if (matcher == null) {
+		    collector = new ItemCollector();
+		} else {
+		    collector = new ItemCollector(matcher, 30, item -> result.addHit(extractHit(TreeNode.model, item)));
+		}
+		if (this.mimeType.equals("application/json")) {
+		    JSONStreamReader.read(page.getReader(), collector, false);
+		} else if (this.mimeType.equals("application/x-javascript")) {
+		    JSONStreamReader.readJavascript(page.toString(), collector);
+		} else if (this.mimeType.equals("application/html+json")) {
+		    JSONStreamReader.read(page.getReader(), collector, true);
+		} else if (this.mimeType.equals("application/xml")) {
+		    try {
+		        StaxReader.read(page.getInputStream(), charsetName(page), collector);
+		    } catch (XMLStreamException e) {
+		        throw new RuntimeException(e); // like DOMBuilder
+		    }
+		} else {
+		    org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(page.getInputStream(), charsetName(page), url);
+		    JSONStreamReader.readJsoupWithJSON(jsoupDoc, collector);
+		}
+		if (matcher == null) {
+		    timing.parsed();
+		    extractHits(TreeNode.model, collector.getDocument(), result);
+		}
+		return result;
+	}
+
+	private <N> void extractHits(NodeModel<N> model, N document, SearchResult result) throws XPathExpressionException {
+		List<N> items = getItemPath().getNativePath().select(model, document);
+		for (int i = 0; i < items.size() && i < 30; i++) {
+			result.addHit(extractHit(model, items.get(i)));
+		}
+	}
+
+	private <N> Hit extractHit(NodeModel<N> model, N item) {
+		return getExtractionPlan().extract(model, item, this.getUserTemplate());
+	}
+
+    private ExtractionPlan getExtractionPlan() {
+        ExtractionPlan plan = this.extractionPlan;
+        List<TextExtractor> extractors = this.extractors;
+        if (plan == null || !plan.isFor(extractors)) {
+            plan = new ExtractionPlan(extractors);
+            this.extractionPlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * @return a matcher for the item path if hits can be extracted while the page is read, or null
+     */
+    private PathExpression.ItemMatcher getItemMatcher() throws XPathExpressionException {
+        PathExpression.ItemMatcher matcher = getItemPath().getNativePath().getItemMatcher();
+        for (TextExtractor extractor: this.extractors) {
+            if (!extractor.hasDownwardPath()) {
+                return null;
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * @return true if the item path and all extractors can be evaluated without W3C DOM
+     */
+    private boolean hasNodeTest() {
+        for (TextExtractor extractor: this.extractors) {
+            if (extractor.getNativePath().hasNodeTest()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasNativePaths() throws XPathExpressionException {
+        if (getItemPath().getNativePath() == null) {
+            return false;
+        }
+        for (TextExtractor extractor: this.extractors) {
+            if (!extractor.hasNativePath()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private XPathPool getItemPath() throws XPathExpressionException {
+        XPathPool pool = this.itemPath;
+        String path = this.itemXpath;
+        if (pool == null || !pool.getPath().equals(path)) {
+            pool = new XPathPool(path);
+            this.itemPath = pool;
+        }
+        return pool;
+    }
+
     private Hit extractHit(Node item) throws XPathExpressionException {
     	Hit hit = new Hit();
     	for(TextExtractor extractor: this.extractors) {
@@ -590,18 +831,19 @@ public class Resource implements Comparable<Resource> {
 		return hit;
 	}
 
-	private Document parseDocumentHTML(String htmlString, String urlString) {
-        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(htmlString, urlString);
+	private Document parseDocumentHTML(PageBuffer page, String urlString) throws IOException {
+        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(page.getInputStream(), charsetName(page), urlString);
         return DOMBuilder.jsoup2DOM(jsoupDoc);
     }
 
 	/**
 	 * From a Javascript callback result, get out all JSON objects and put them in a single object
-	 * @param scriptString 
+	 * @param page 
 	 * @return Document
 	 * @throws IOException
 	 */
-	private Document parseDocumentJavascript(String scriptString) {
+	private Document parseDocumentJavascript(PageBuffer page) {
+		String scriptString = page.toString();
 		int nrOfCurly = 0;
 		int first = -1;
 		JSONArray array = new JSONArray();
@@ -624,60 +866,70 @@ public class Resource implements Comparable<Resource> {
 		object.put("list", array);
         return DOMBuilder.json2DOM(object);
 	}
-	
-    private Document parseDocumentJSON(String jsonString) {
-        if (jsonString.startsWith("[")) {  // turn lists into objects    
-        	jsonString = "{\"list\":" + jsonString + "}";
+
+    /**
+     * Reads JSON from the page; turns lists into objects.
+     */
+    private JSONObject readJSON(PageBuffer page) {
+        Object value = new JSONTokener(page.getReader()).nextValue();
+        if (value instanceof JSONArray) {
+            JSONObject object = new JSONObject();
+            object.put("list", value);
+            return object;
+        } else if (value instanceof JSONObject) {
+            return (JSONObject) value;
         }
-        return DOMBuilder.json2DOM(new JSONObject(jsonString));
+        throw new JSONException("A JSONObject text must begin with '{'");
+    }
+
+    private Document parseDocumentJSON(PageBuffer page) {
+        return DOMBuilder.json2DOM(readJSON(page));
     }
 	
-    private Document parseDocumentJSONandHTML(String jsonString) {
-        if (jsonString.startsWith("[")) {  // turn lists into objects    
-        	jsonString = "{\"list\":" + jsonString + "}";
-        }
-        return DOMBuilder.jsonAndHtml2DOM(new JSONObject(jsonString));
+    private Document parseDocumentJSONandHTML(PageBuffer page) {
+        return DOMBuilder.jsonAndHtml2DOM(readJSON(page));
     }
     
-	private Document parseDocumentHTMLwithJSONattr(String htmlString, String urlString) {
-        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(htmlString, urlString);
+	private Document parseDocumentHTMLwithJSONattr(PageBuffer page, String urlString) throws IOException {
+        org.jsoup.nodes.Document jsoupDoc = Jsoup.parse(page.getInputStream(), charsetName(page), urlString);
         return DOMBuilder.jsoupAndJson2DOM(jsoupDoc);
     }
 	
-    private Document parseDocumentXML(String xmlString) {
-        return DOMBuilder.string2DOM(xmlString);
+    private Document parseDocumentXML(PageBuffer page) {
+        return DOMBuilder.stream2DOM(page.getInputStream(), charsetName(page));
+    }
+
+    /**
+     * @return declared character set of the page, or null if unknown
+     */
+    private String charsetName(PageBuffer page) {
+        return page.getCharset() == null ? null : page.getCharset().name();
     }
 
-    private String fillTemplate(String template, String query) throws SearchException {
+    private String fillTemplate(Template template, String query) throws SearchException {
     	return fillTemplate(template, query, null);
     }
     
-    private String fillTemplate(String template, String query, Integer startPage) throws SearchException {
-  		String url = template;
-   		for (String param: getPrivateParameterKeys()) {
-   			url = url.replaceAll("\\{" + param + "\\??\\}", getPrivateParameter(param));
-   		}
-   		url = url.replaceAll("\\{searchTerms\\??\\}", query); // opensearch standard
-   		url = url.replaceAll("\\{q\\??\\}", query); // old Searsia
-   		if (startPage == null) {
-   			startPage = this.getIndexOffset();
-   	   		url = url.replaceAll("\\{startPage\\}", startPage.toString());
-   		} else {
-       		url = url.replaceAll("\\{startPage\\??\\}", startPage.toString());
-   		}
-        url = url.replaceAll("\\{[0-9A-Za-z\\-_]+\\?\\}", ""); // remove optional parameters
-		if (url.matches(".*\\{[0-9A-Za-z\\-_]+\\}.*")) {
-		    String param = url.substring(url.indexOf("{"), url.indexOf("}") + 1);
-			throw new SearchException("Missing url parameter " + param);
-		}        
+    private String fillTemplate(Template template, String query, Integer startPage) throws SearchException {
+        String url = template.expand(query, startPage, this.indexOffset, this.privateParameters);
   		String signature = getSignatureName();
         if (signature != null) {
-   			url = Signatures.sign(url, signature, getSignatureKey());
+   			url = getSigner(signature).sign(url);
    		}
         return url;
 	}
 
-    private SearchException createPrivateSearchException(Exception e) {
+    private Signer getSigner(String signature) {
+        Signer signer = this.signer;
+        String key = getSignatureKey();
+        if (signer == null || !signer.isFor(signature, key, this.urlAPITemplate)) {
+            signer = new Signer(signature, key, this.urlAPITemplate);
+            this.signer = signer;
+        }
+        return signer;
+    }
+
+    private SearchException createPrivateSearchException(Throwable e) {
   		String message = e.toString();
   		message = message.replaceAll("java\\.[a-z]+\\.", "");
    		for (String param: getPrivateParameterKeys()) {
@@ -686,31 +938,15 @@ public class Resource implements Comparable<Resource> {
         return new SearchException(message);
 	}
     
-    /**
-     * Rate limiting based on:
-     * http://stackoverflow.com/questions/667508/whats-a-good-rate-limiting-algorithm
-     */
     private boolean rateLimitReached() {
-        Long now = new Date().getTime();
-        Long timePassed = now - this.lastUsed;
-        this.lastUsed = now;
-        this.allowance += (((double) timePassed / defaultPER)) * this.rate;
-        if (this.allowance > this.rate) { 
-        	this.allowance = this.rate;
-        } 
-        if (this.allowance > 1) {
-        	this.allowance -= 1;
-        	return false;
-        } else {
-      	    return true;
-        }
+        return !this.limiter.tryAcquire(this.rate);
     }
 
-    private URLConnection setConnectionProperties(URL url, Map<String, String> headers) throws IOException {
-        URLConnection connection = url.openConnection();
-        connection.setRequestProperty("User-Agent", "Searsia/1.0");
-        connection.setRequestProperty("Accept", this.mimeType + "; q=1.0, */*; q=0.5");
-        connection.setRequestProperty("Accept-Language", "en-US,en;q=0.5"); // TODO: from browser?
+    private UpstreamRequest createRequest(URI uri, String postString, Map<String, String> headers) throws IOException {
+        UpstreamRequest request = new UpstreamRequest(uri);
+        request.setHeader("User-Agent", "Searsia/1.0");
+        request.setHeader("Accept", this.mimeType + "; q=1.0, */*; q=0.5");
+        request.setHeader("Accept-Language", "en-US,en;q=0.5"); // TODO: from browser?
         for (Map.Entry<String, String> entry : headers.entrySet()) {
         	String value = entry.getValue();
             if (value.contains("{")) {
@@ -722,73 +958,154 @@ public class Resource implements Comparable<Resource> {
 	    			throw new IOException("Missing header parameter " + param);
         		}
 			}
-        	connection.setRequestProperty(entry.getKey(), value);
+        	request.setHeader(entry.getKey(), value);
     	}
-        connection.setReadTimeout(9000);
-        connection.setConnectTimeout(9000);
-        return connection;
+        request.setPostString(postString);
+        request.setTimeout(getTimeout());
+        request.setMaxBytes(this.maxBytes);
+        return request;
     }
     
-    private String correctContentType(String contentType) { // TODO more charsets
-        if (contentType != null && contentType.toLowerCase().contains("charset=iso-8859-1")) {
-            contentType = "ISO-8859-1";
-        } else {
-            contentType = "UTF-8";
+    /**
+     * Gets the character set from a Content-Type header.
+     * @param contentType
+     * @return character set, or null if not present or not supported
+     */
+    private Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            for (String param: contentType.split(";")) {
+                param = param.trim();
+                if (param.toLowerCase().startsWith("charset=")) {
+                    String name = param.substring(8).replace("\"", "").trim();
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                }
+            }
         }
-        return contentType;
+        return null;
     }
-    
-    private InputStreamReader httpConnect(URLConnection connection, String postString) throws IOException {
-    	HttpURLConnection http = (HttpURLConnection) connection;
-        http.setInstanceFollowRedirects(true);
-        if (postString != null && !postString.equals("")) {
-            http.setRequestMethod("POST");
-            http.setRequestProperty("Content-Length", "" + Integer.toString(postString.getBytes().length));
-            http.setDoOutput(true);
-    		DataOutputStream wr = new DataOutputStream(http.getOutputStream());
-    		wr.writeBytes(postString);
-    		wr.flush();
-    		wr.close();
-        } else {
-            http.setRequestMethod("GET");
-            http.connect();
-        }
-        int responseCode = http.getResponseCode();
+
+    private PageBuffer httpConnect(UpstreamResponse response) throws IOException {
+        int responseCode = response.getStatus();
         if (responseCode == 301) { // FollowRedirects did not work?!        
             throw new IOException("Moved permanently");
         }
         if (responseCode == 410) { // Gone: we will use this special error message elsewhere in this code.
             throw new IOException(goneErrorMessage);
         }
-        String contentType = correctContentType(http.getHeaderField("Content-Type"));
-        return new InputStreamReader(http.getInputStream(), contentType);
+        if (responseCode >= 400) {
+            throw new IOException("Server returned HTTP response code: " + responseCode);
+        }
+        PageBuffer page = response.getBody();
+        page.setCharset(charsetOf(response.getHeader("Content-Type")));
+        page.setValidators(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+        if (responseCode == 304) { // only if we asked for it, see searchResource
+            page.setNotModified();
+        }
+        return page;
     }
-        
-    private InputStreamReader fileConnect(URLConnection connection) throws IOException {
-    	String fileName = connection.getURL().getFile();
-    	return new InputStreamReader(new FileInputStream(new File(fileName)), "UTF-8");
+
+    private PageBuffer fileConnect(URL url) throws IOException {
+        long start = System.currentTimeMillis();
+        PageBuffer page = new PageBuffer(this.maxBytes);
+        page.append(new FileInputStream(new File(url.getFile())));
+        page.setCharset(StandardCharsets.UTF_8);
+        countIngest(page.size(), page.size(), System.currentTimeMillis() - start);
+        return page;
     }
 
-    private String getCompletePage(String urlString, String postString, Map<String, String> headers) throws IOException {
-        URL url = new URL(urlString);
-        URLConnection connection = setConnectionProperties(url, headers);
-        InputStreamReader reader;
-        if (url.getProtocol().equals("file")) {
-        	reader = fileConnect(connection);
-        } else {
-        	reader = httpConnect(connection, postString);
+    private void countIngest(long bytes, long wireBytes, long millis) {
+        this.stats.countIngest(bytes, wireBytes, millis);
+    }
+
+    private void countIngestFailure(Throwable e) {
+        String message = e.getMessage();
+        if (e instanceof IOException && message != null && message.startsWith(PageBuffer.tooLargeMessage)) {
+            this.stats.countTooLarge();
+        }
+    }
+
+    private CompletableFuture<PageBuffer> fetchPage(String urlString, String postString, Map<String, String> headers) {
+        return fetchPage(urlString, postString, headers, false);
+    }
+
+    /**
+     * Fetches a page via the upstream client, or from disk for 'file' urls.
+     * The page is not larger than maxBytes.
+     * @param hedge if true, and the resource hedges, send a second request if the first one is slow
+     * @return future page; it fails with an IOException
+     */
+    private CompletableFuture<PageBuffer> fetchPage(String urlString, String postString, Map<String, String> headers, boolean hedge) {
+        try {
+            URL url = new URL(urlString);
+            if (url.getProtocol().equals("file")) {
+                return CompletableFuture.completedFuture(fileConnect(url));
+            }
+            UpstreamRequest request = createRequest(url.toURI(), postString, headers);
+            CompletableFuture<UpstreamResponse> future;
+            if (hedge && this.hedge && this.latency.getCount() >= defaultLATENCYSAMPLES) {
+                future = HedgedFetch.fetch(() -> timedFetch(request), this.latency.getPercentile(0.95),
+                    () -> !rateLimitReached(), this.stats::hedgeIssued, this.stats::hedgeWon);
+            } else {
+                future = timedFetch(request);
+            }
+            return future.thenApply(response -> {
+                countIngest(response.getBody().size(), response.getWireBytes(), response.getReadMillis());
+                try {
+                    return httpConnect(response);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }).whenComplete((page, e) -> {
+                if (e != null) countIngestFailure(unwrap(e));
+            });
+        } catch (IOException | URISyntaxException e) {
+            countIngestFailure(e);
+            return CompletableFuture.failedFuture(e);
         }
-        BufferedReader in = new BufferedReader(reader);
-        StringBuilder page = new StringBuilder();
-        if (in != null) {
-            String inputLine; 
-            while ((inputLine = in.readLine()) != null) {
-                page.append(inputLine);
-                page.append("\n");
+    }
+
+    /**
+     * @return future response, that records its latency, unless it is cancelled
+     */
+    private CompletableFuture<UpstreamResponse> timedFetch(UpstreamRequest request) {
+        long start = System.currentTimeMillis();
+        CompletableFuture<UpstreamResponse> response = upstreamClient.fetch(request);
+        response.whenComplete((r, e) -> {
+            if (!response.isCancelled()) {
+                this.latency.record(System.currentTimeMillis() - start); // also timeouts, so timeouts can grow
             }
-            in.close();
+        });
+        return response;
+    }
+
+    private PageBuffer getCompletePage(String urlString, String postString, Map<String, String> headers) throws IOException {
+        try {
+            return fetchPage(urlString, postString, headers).join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
         }
-        return page.toString();
+    }
+
+    /**
+     * Replace the client that fetches pages for all resources. 
+     * @param client
+     */
+    public static void setUpstreamClient(UpstreamClient client) {
+        upstreamClient = client;
+    }
+
+    public static UpstreamClient getUpstreamClient() {
+        return upstreamClient;
     }
 
 
@@ -913,18 +1230,53 @@ public class Resource implements Comparable<Resource> {
 	public int getRate() {
 		return this.rate;
 	}
-	
+
+	public int getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	public int getMinTimeout() {
+		return this.minTimeout;
+	}
+
+	public int getMaxTimeout() {
+		return this.maxTimeout;
+	}
+
+	/**
+	 * @return true if a second request is sent when the first is slower than the 95th percentile
+	 */
+	public boolean isHedged() {
+		return this.hedge;
+	}
+
+	/**
+	 * Timeout of a request, adapted to the latency of the engine: a
+	 * factor times the 99th percentile of recent response times, bounded
+	 * by minTimeout and maxTimeout.
+	 * @return timeout in milliseconds
+	 */
+	public int getTimeout() {
+		if (this.latency.getCount() < defaultLATENCYSAMPLES) {
+			return this.maxTimeout;
+		}
+		long timeout = this.latency.getPercentile(0.99) * defaultTIMEOUTFACTOR;
+		if (timeout < this.minTimeout) {
+			return this.minTimeout;
+		}
+		if (timeout > this.maxTimeout) {
+			return this.maxTimeout;
+		}
+		return (int) timeout;
+	}
+
+
 	public boolean isDeleted() {
 	    return this.deleted;
 	}
 	
 	public int getAllowance() {
-        long timePassed = new Date().getTime() - this.lastUsed;
-        double currentAllowance = this.allowance + (((double) timePassed / defaultPER)) * this.rate;
-        if (currentAllowance > this.rate) {
-            return this.rate;
-        }
-        return (int) currentAllowance;
+        return this.limiter.getAllowance(this.rate);
 	}
 	
     private float getExactPrior() {
@@ -940,11 +1292,12 @@ public class Resource implements Comparable<Resource> {
         if (this.prior != null) {
             prior = this.prior;
         }
-        long timePassed = new Date().getTime() - this.upsince; // in milisceconds
+        ResourceStats.Snapshot stats = this.stats.snapshot();
+        long timePassed = new Date().getTime() - stats.upsince; // in milisceconds
         if (timePassed < 604800000l) { timePassed = 604800000l; } // minimum one week
         timePassed /= 6000; // in 10-seconds
-		prior += (float) this.nrOfOk / timePassed; // add a tiny amount of success...
-        prior -= (float) this.nrOfError / timePassed; 
+		prior += (float) stats.nrOfOk / timePassed; // add a tiny amount of success...
+        prior -= (float) stats.nrOfError / timePassed; 
 		return prior;
 	}
 
@@ -953,11 +1306,11 @@ public class Resource implements Comparable<Resource> {
     }
 
 	public int getNrOfErrors() {
-	    return this.nrOfError;
+	    return (int) this.stats.snapshot().nrOfError;
 	}
 	
 	public int getNrOfSuccess() {
-	    return this.nrOfOk;
+	    return (int) this.stats.snapshot().nrOfOk;
 	}
 	
 	private long secondsAgo(long last) {
@@ -970,43 +1323,57 @@ public class Resource implements Comparable<Resource> {
 	}
 
     public String getLastError() {
-        return this.lastMessage;
+        return this.stats.snapshot().lastMessage;
     }
 	
     public String getLastUsedString() {
-        return dateFormat.format(new Date(this.lastUsed));
+        return dateFormat.format(new Date(this.limiter.getLastUsed()));
     }
 
     public String getLastSuccessDate() {
-        return dateFormat.format(new Date(this.lastUsedOk));
+        return dateFormat.format(new Date(this.stats.snapshot().lastUsedOk));
     }
 
     public String getLastErrorDate() {
-        return dateFormat.format(new Date(this.lastUsedError));
+        return dateFormat.format(new Date(this.stats.snapshot().lastUsedError));
     }
 
 	public String getLastUpdatedString() {
-        return dateFormat.format(new Date(this.lastUpdated));
+        return dateFormat.format(new Date(this.stats.getLastUpdated()));
 	}
 
+    /**
+     * @return time at which the definition last changed (Unix time)
+     */
+    public long getUpSince() {
+        return this.stats.getUpSince();
+    }
+
     public String getUpSinceString() {
-        return dateFormat.format(new Date(this.upsince));
+        return dateFormat.format(new Date(this.stats.getUpSince()));
     }
 
     public long getLastUpdatedSecondsAgo() {
-	    return secondsAgo(this.lastUpdated);
+	    return secondsAgo(this.stats.getLastUpdated());
 	}
 
     public Long getLastUsedSecondsAgo() {
-        return secondsAgo(this.lastUsed);
+        return secondsAgo(this.limiter.getLastUsed());
     }
     
     public int getIndexOffset() {
-    	return 1; // TODO: indexOffSet of opensearch url template syntax
+    	return this.indexOffset;
     }
     
     public boolean isHealthy() {
-        return this.lastUsedOk >= this.lastUsedError || this.nrOfError == 0;
+        return this.stats.snapshot().isHealthy();
+    }
+
+    /**
+     * @return "closed" if requests are sent upstream, "open" if they fail fast, or "half-open"
+     */
+    public String getCircuitState() {
+        return this.breaker.getState();
     }
 
 
@@ -1066,12 +1433,13 @@ public class Resource implements Comparable<Resource> {
 	 */
 	public void updateWith(Resource e2) { // TODO: bad idea in multi-threaded app!?
         setLastUpdatedToNow();
+        this.definitionETag = e2.definitionETag;
+        this.definitionModified = e2.definitionModified;
         if (!equals(e2)) {
             if (this.id != null && !this.id.equals(e2.id)) throw new RuntimeException("Cannot update resource ID.");
             setUpSinceToNow();
-            this.nrOfOk = 0;
-            this.nrOfError = 0;
-            this.lastMessage = null;
+            this.stats.setCounts(0, 0, null);
+            this.breaker.reset();
             this.id       = e2.id;
             this.deleted  = e2.deleted;
             this.name     = e2.name;
@@ -1091,16 +1459,22 @@ public class Resource implements Comparable<Resource> {
             if (e2.testQuery == null) { this.testQuery = defaultTestQuery; } else { this.testQuery = e2.testQuery; }
             this.prior = e2.prior;
             this.rate = e2.rate;
+            this.maxBytes = e2.maxBytes;
+            this.minTimeout = e2.minTimeout;
+            this.maxTimeout = e2.maxTimeout;
+            this.hedge = e2.hedge;
+            this.indexOffset = e2.indexOffset;
             this.itemXpath = e2.itemXpath;
             this.extractors = e2.extractors;
             this.headers   = e2.headers;
             this.privateParameters = e2.privateParameters;          
+            compileTemplates();
         }
 	}
 	
 	public void updateAllowance(Resource e2) {
 	    if (this.id != null && !this.id.equals(e2.id)) throw new RuntimeException("Cannot update resource ID.");
-	    this.allowance = e2.allowance;
+	    this.limiter.setAllowance(e2.limiter);
 	}
 
 
@@ -1130,6 +1504,11 @@ public class Resource implements Comparable<Resource> {
             if (testQuery != null)           engine.put("testquery", testQuery);
             if (prior != null)               engine.put("prior", prior);
             if (rate != defaultRATE)         engine.put("maxqueriesperday", rate);
+            if (maxBytes != defaultMAXBYTES) engine.put("maxbytes", maxBytes);
+            if (minTimeout != defaultMINTIMEOUT) engine.put("mintimeout", minTimeout);
+            if (maxTimeout != defaultTIMEOUT) engine.put("maxtimeout", maxTimeout);
+            if (hedge)                       engine.put("hedge", hedge);
+            if (indexOffset != defaultINDEXOFFSET) engine.put("indexoffset", indexOffset);
             if (itemXpath != null)           engine.put("itempath", itemXpath);
             if (extractors != null && extractors.size() > 0) {
                 JSONObject json = new JSONObject();
@@ -1173,14 +1552,21 @@ public class Resource implements Comparable<Resource> {
 
     public JSONObject toJsonHealth() {
         JSONObject health = new JSONObject();
+        ResourceStats.Snapshot stats = this.stats.snapshot();
         health.put("dayallowance", getAllowance());
-        health.put("requestsok",   this.nrOfOk); 
-        health.put("requestserr",  this.nrOfError); 
-        health.put("lastsuccess",  getLastSuccessDate());
-        health.put("lasterror",    getLastErrorDate());
-        health.put("lastupdated",  getLastUpdatedString());
-        health.put("upsince",      getUpSinceString());
-        if (this.lastMessage != null) health.put("lastmessage", this.lastMessage);
+        health.put("requestsok",   stats.nrOfOk); 
+        health.put("requestserr",  stats.nrOfError); 
+        health.put("lastsuccess",  dateFormat.format(new Date(stats.lastUsedOk)));
+        health.put("lasterror",    dateFormat.format(new Date(stats.lastUsedError)));
+        health.put("lastupdated",  dateFormat.format(new Date(stats.lastUpdated)));
+        health.put("upsince",      dateFormat.format(new Date(stats.upsince)));
+        if (stats.lastMessage != null) health.put("lastmessage", stats.lastMessage);
+        health.put("circuit",      this.breaker.getState());
+        JSONObject latency = this.latency.toJson();
+        latency.put("timeout", getTimeout());
+        health.put("latency",      latency);
+        if (this.hedge) health.put("hedges", this.stats.getHedgesJson());
+        health.put("ingest",       this.stats.getIngestJson());
         return health;
     }
 
@@ -1191,15 +1577,15 @@ public class Resource implements Comparable<Resource> {
      * @throws ParseException
      */
     public void updateHealth(JSONObject health) throws ParseException {
-        Integer num = health.getInt("requestsok");
-        if (num != null) this.nrOfOk = num;
-        num = health.getInt("requestserr");
-        if (num != null) this.nrOfError = num;
-        this.lastUsedOk  = dateFormat.parse(health.getString("lastsuccess")).getTime();
-        this.lastUsedError = dateFormat.parse(health.getString("lasterror")).getTime();
-        this.lastUpdated = dateFormat.parse(health.getString("lastupdated")).getTime();
-        this.upsince = dateFormat.parse(health.getString("upsince")).getTime();
-        if (health.has("lastmessage")) this.lastMessage = health.getString("lastmessage");
+        ResourceStats.Snapshot stats = this.stats.snapshot();
+        long nrOfOk = health.getInt("requestsok");
+        long nrOfError = health.getInt("requestserr");
+        String lastMessage = health.has("lastmessage") ? health.getString("lastmessage") : stats.lastMessage;
+        this.stats.setCounts(nrOfOk, nrOfError, lastMessage);
+        this.stats.setLastUsedOk(dateFormat.parse(health.getString("lastsuccess")).getTime());
+        this.stats.setLastUsedError(dateFormat.parse(health.getString("lasterror")).getTime());
+        this.stats.setLastUpdated(dateFormat.parse(health.getString("lastupdated")).getTime());
+        this.stats.setUpSince(dateFormat.parse(health.getString("upsince")).getTime());
         if (health.has("type")) this.resultTypes = health.getString("type");
     }
 
@@ -1247,6 +1633,11 @@ public class Resource implements Comparable<Resource> {
     	if (!stringEquals(this.getUserTemplate(), e.getUserTemplate())) return false;
     	if (!stringEquals(this.getSuggestTemplate(), e.getSuggestTemplate())) return false;
     	if (this.getRate() != e.getRate()) return false;
+    	if (this.getMaxBytes() != e.getMaxBytes()) return false;
+    	if (this.getMinTimeout() != e.getMinTimeout()) return false;
+    	if (this.getMaxTimeout() != e.getMaxTimeout()) return false;
+    	if (this.isHedged() != e.isHedged()) return false;
+    	if (this.getIndexOffset() != e.getIndexOffset()) return false;
         if (Math.abs(this.getExactPrior() - e.getExactPrior()) > 0.001f) return false;
     	if (!listEquals(this.getExtractors(), e.getExtractors())) return false; 
     	if (!mapEquals(this.getHeaders(), e.getHeaders())) return false; 
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+/**
+ * Runtime statistics of a resource, shared by the request threads and the
+ * daemon that samples resources. Counters are striped (LongAdder), so
+ * concurrent searches do not lose updates and do not contend. Reports are
+ * made from a Snapshot, which reads every value once, without locks.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class ResourceStats {
+
+    private final LongAdder nrOfOk = new LongAdder();
+    private final LongAdder nrOfError = new LongAdder();
+    private final LongAdder nrOfPages = new LongAdder();     // page ingestion: pages, bytes, time (miliseconds)
+    private final LongAdder nrOfBytes = new LongAdder();     // decompressed
+    private final LongAdder nrOfWireBytes = new LongAdder(); // as received, possibly compressed
+    private final LongAdder readMillis = new LongAdder();
+    private final LongAdder nrOfTooLarge = new LongAdder();
+    private final LongAdder nrOfHedges = new LongAdder();    // hedged requests: sent, and won
+    private final LongAdder nrOfHedgesWon = new LongAdder();
+    private final AtomicReference<String> nextQuery = new AtomicReference<>();
+    private volatile String lastMessage = null;
+    private volatile long lastUsedOk;     // Unix time
+    private volatile long lastUsedError;
+    private volatile long lastUpdated;
+    private volatile long upsince;
+
+    public ResourceStats() {
+        long now = System.currentTimeMillis();
+        this.lastUsedOk = now;
+        this.lastUsedError = now;
+        this.lastUpdated = now;
+        this.upsince = now;
+    }
+
+    /**
+     * Immutable copy of the statistics, for reports and ranking.
+     */
+    public static class Snapshot {
+        public final long nrOfOk;
+        public final long nrOfError;
+        public final long lastUsedOk;
+        public final long lastUsedError;
+        public final long lastUpdated;
+        public final long upsince;
+        public final String lastMessage;
+
+        private Snapshot(ResourceStats stats) {
+            this.lastUsedOk = stats.lastUsedOk;
+            this.lastUsedError = stats.lastUsedError;
+            this.lastUpdated = stats.lastUpdated;
+            this.upsince = stats.upsince;
+            this.lastMessage = stats.lastMessage;
+            this.nrOfOk = stats.nrOfOk.sum();
+            this.nrOfError = stats.nrOfError.sum();
+        }
+
+        public boolean isHealthy() {
+            return this.lastUsedOk >= this.lastUsedError || this.nrOfError == 0;
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public void success() {
+        this.nrOfOk.increment();
+        this.lastUsedOk = System.currentTimeMillis();
+    }
+
+    public void error(String message) {
+        this.nrOfError.increment();
+        this.lastUsedError = System.currentTimeMillis();
+        this.lastMessage = message;
+    }
+
+    /**
+     * Sets the counts, for instance after a restart, or a change of the resource
+     * @param nrOfOk
+     * @param nrOfError
+     * @param lastMessage
+     */
+    public void setCounts(long nrOfOk, long nrOfError, String lastMessage) {
+        this.nrOfOk.reset();
+        this.nrOfOk.add(nrOfOk);
+        this.nrOfError.reset();
+        this.nrOfError.add(nrOfError);
+        this.lastMessage = lastMessage;
+    }
+
+    public void setLastUsedOk(long time) {
+        this.lastUsedOk = time;
+    }
+
+    public void setLastUsedError(long time) {
+        this.lastUsedError = time;
+    }
+
+    public void setLastUpdated(long time) {
+        this.lastUpdated = time;
+    }
+
+    public void setUpSince(long time) {
+        this.upsince = time;
+    }
+
+    public long getLastUpdated() {
+        return this.lastUpdated;
+    }
+
+    public long getUpSince() {
+        return this.upsince;
+    }
+
+    /**
+     * Takes the query for the next random search, if any
+     * @return query, or null
+     */
+    public String takeNextQuery() {
+        return this.nextQuery.getAndSet(null);
+    }
+
+    public void setNextQuery(String query) {
+        this.nextQuery.set(query);
+    }
+
+    public void countIngest(long bytes, long wireBytes, long millis) {
+        this.nrOfPages.increment();
+        this.nrOfBytes.add(bytes);
+        this.nrOfWireBytes.add(wireBytes);
+        this.readMillis.add(millis);
+    }
+
+    public void countTooLarge() {
+        this.nrOfTooLarge.increment();
+    }
+
+    public void hedgeIssued() {
+        this.nrOfHedges.increment();
+    }
+
+    public void hedgeWon() {
+        this.nrOfHedgesWon.increment();
+    }
+
+    public JSONObject getHedgesJson() {
+        JSONObject json = new JSONObject();
+        json.put("issued", this.nrOfHedges.sum());
+        json.put("won",    this.nrOfHedgesWon.sum());
+        return json;
+    }
+
+    public JSONObject getIngestJson() {
+        JSONObject json = new JSONObject();
+        json.put("pages",    this.nrOfPages.sum());
+        json.put("bytes",    this.nrOfBytes.sum());
+        json.put("wirebytes", this.nrOfWireBytes.sum());
+        json.put("millis",   this.readMillis.sum());
+        json.put("toolarge", this.nrOfTooLarge.sum());
+        return json;
+    }
+
+}
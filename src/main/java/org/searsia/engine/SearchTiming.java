@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import org.json.JSONObject;
+
+/**
+ * Time spent on the phases of a single search: fetching the page, parsing
+ * it, and extracting the hits. If hits are extracted while the page is
+ * parsed, extraction is part of parsing.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class SearchTiming {
+
+    private final long start = System.nanoTime();
+    private long fetched = 0;
+    private long parsed = 0;
+    private long extracted = 0;
+    private long bytes = 0;
+
+    void fetched(long bytes) {
+        this.fetched = System.nanoTime();
+        this.bytes = bytes;
+    }
+
+    void parsed() {
+        this.parsed = System.nanoTime();
+    }
+
+    void extracted() {
+        this.extracted = System.nanoTime();
+        if (this.parsed == 0) {
+            this.parsed = this.extracted;
+        }
+    }
+
+    private static double millis(long from, long to) {
+        return Math.round((to - from) / 100000.0) / 10.0;
+    }
+
+    /**
+     * @return time in milliseconds from the request to the complete page
+     */
+    public double getFetchMillis() {
+        return millis(this.start, this.fetched);
+    }
+
+    public double getParseMillis() {
+        return millis(this.fetched, this.parsed);
+    }
+
+    public double getExtractMillis() {
+        return millis(this.parsed, this.extracted);
+    }
+
+    /**
+     * @return size of the page in bytes (decompressed)
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("fetch",   getFetchMillis());
+        json.put("parse",   getParseMillis());
+        json.put("extract", getExtractMillis());
+        json.put("bytes",   getBytes());
+        return json;
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs the requests of one resource, see Signatures. The key is set up
+ * once, and every thread gets its own Mac. The parameters of the API
+ * template that do not change are percent-encoded and sorted once, so a
+ * request only sorts the parameters that depend on the query, and merges
+ * them in.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class Signer {
+
+    private static final String HMAC_SHA256_ALGORITHM = "HmacSHA256";
+    private static final DateTimeFormatter timestampFormat =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+
+    private static final class Timestamp {
+        private final long second;
+        private final String text;
+
+        private Timestamp(long second) {
+            this.second = second;
+            this.text = timestampFormat.format(Instant.ofEpochSecond(second));
+        }
+    }
+
+    private static volatile Timestamp timestamp = new Timestamp(0L);
+
+    private final String algorithm;
+    private final String secretKey;
+    private final String template;
+    private final ThreadLocal<Mac> macs;
+    private final String prefix;        // url up to the '?', if the same for every request
+    private final String protocol;
+    private final String host;
+    private final String path;
+    private final Set<String> staticPairs = new HashSet<>();  // as in the url, for instance "Service=AWSECommerceService"
+    private final Set<String> staticKeys = new HashSet<>();
+    private final String[] sortedKeys;
+    private final String[] encodedPairs; // percent-encoded, in the order of sortedKeys
+
+    /**
+     * @param algorithm signature algorithm, only "HmacSHA256" is supported
+     * @param secretKey
+     * @param template API template of the resource, or null
+     */
+    public Signer(String algorithm, String secretKey, String template) {
+        if (algorithm != null && !algorithm.equals(HMAC_SHA256_ALGORITHM)) {
+            throw new RuntimeException("Unsupported signature: " + algorithm);
+        }
+        if (secretKey == null) {
+            throw new RuntimeException("Signature key not found.");
+        }
+        this.algorithm = algorithm;
+        this.secretKey = secretKey;
+        this.template = template;
+        Mac mac = newMac(secretKey);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                synchronized (mac) {
+                    return (Mac) mac.clone();
+                }
+            } catch (CloneNotSupportedException e) {
+                return newMac(secretKey);
+            }
+        });
+        String prefix = null, protocol = null, host = null, path = null;
+        SortedMap<String, String> sorted = new TreeMap<>();
+        int question = (template == null) ? -1 : template.indexOf('?');
+        if (question > 0 && template.lastIndexOf('{', question) == -1) {
+            try {
+                URL url = new URL(template.substring(0, question));
+                prefix = template.substring(0, question);
+                protocol = url.getProtocol();
+                host = url.getHost();
+                path = url.getPath();
+            } catch (MalformedURLException e) {
+                prefix = null;
+            }
+            for (String pair: template.substring(question + 1).split("&")) {
+                if (pair.indexOf('{') == -1 && pair.indexOf('=') > 0 && this.staticKeys.add(key(pair))) {
+                    this.staticPairs.add(pair);
+                    sorted.put(key(pair), pair);
+                } else if (pair.indexOf('{') == -1 && pair.indexOf('=') > 0) { // the same key twice: all pairs are merged
+                    this.staticPairs.clear();
+                    this.staticKeys.clear();
+                    sorted.clear();
+                    break;
+                }
+            }
+        }
+        this.prefix = prefix;
+        this.protocol = protocol;
+        this.host = host;
+        this.path = path;
+        this.sortedKeys = sorted.keySet().toArray(new String[sorted.size()]);
+        this.encodedPairs = new String[this.sortedKeys.length];
+        for (int i = 0; i < this.sortedKeys.length; i += 1) {
+            String pair = sorted.get(this.sortedKeys[i]);
+            this.encodedPairs[i] = percentEncodeRfc3986(key(pair)) + "=" + percentEncodeRfc3986(value(pair));
+        }
+    }
+
+    private static Mac newMac(String secretKey) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256_ALGORITHM);
+            mac.init(new SecretKeySpec(secretKey.getBytes(StandardCharsets.UTF_8), HMAC_SHA256_ALGORITHM));
+            return mac;
+        } catch (Exception e) { // NoSuchAlgorithmException, InvalidKeyException
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return true if this signer signs with this algorithm and key, for this template
+     */
+    public boolean isFor(String algorithm, String secretKey, String template) {
+        return Objects.equals(this.algorithm, algorithm) && Objects.equals(this.secretKey, secretKey) &&
+            Objects.equals(this.template, template);
+    }
+
+    /**
+     * Signs a request (GET), adding a Timestamp if there is none.
+     * @param urlString filled in template
+     * @return signed url, with parameters in canonical order
+     */
+    public String sign(String urlString) {
+        String protocol, host, path, query;
+        int question = urlString.indexOf('?');
+        if (this.prefix != null && question == this.prefix.length() && urlString.startsWith(this.prefix)) {
+            protocol = this.protocol;
+            host  = this.host;
+            path  = this.path;
+            query = urlString.substring(question + 1);
+        } else {
+            URL url;
+            try {
+                url = new URL(urlString);
+            } catch (MalformedURLException e) {
+                throw new RuntimeException(e);
+            }
+            protocol = url.getProtocol();
+            host  = url.getHost();
+            path  = url.getPath();
+            query = url.getQuery();
+        }
+        List<String> pairs = (query == null || query.isEmpty()) ? new ArrayList<>() : Arrays.asList(query.split("&"));
+        SortedMap<String, String> params = new TreeMap<>(); // only the ones that depend on the query
+        int nrStatic = 0;
+        boolean merge = true;
+        for (String pair: pairs) {
+            if (this.staticPairs.contains(pair)) {
+                nrStatic += 1;
+            } else {
+                String key = key(pair);
+                if (this.staticKeys.contains(key)) {
+                    merge = false;
+                }
+                params.put(key, value(pair));
+            }
+        }
+        String canonicalQS;
+        if (merge && nrStatic == this.sortedKeys.length) {
+            if (!this.staticKeys.contains("Timestamp")) {
+                params.putIfAbsent("Timestamp", timestamp());
+            }
+            canonicalQS = canonicalize(params, this.sortedKeys, this.encodedPairs);
+        } else { // the url does not have the template's parameters: sort them all
+            params.clear();
+            for (String pair: pairs) {
+                params.put(key(pair), value(pair));
+            }
+            params.putIfAbsent("Timestamp", timestamp());
+            canonicalQS = canonicalize(params, new String[0], new String[0]);
+        }
+        String toSign = "GET\n" + host + "\n" + path + "\n" + canonicalQS;
+        String sig = percentEncodeRfc3986(hmac(toSign));
+        return protocol + "://" + host + path + "?" + canonicalQS + "&Signature=" + sig;
+    }
+
+    private static String key(String pair) {
+        int end = pair.indexOf('=');
+        return (end == -1) ? pair : pair.substring(0, end);
+    }
+
+    private static String value(String pair) { // like pair.split("=")[1]
+        int begin = pair.indexOf('=');
+        if (begin == -1) {
+            return "";
+        }
+        int end = pair.indexOf('=', begin + 1);
+        return (end == -1) ? pair.substring(begin + 1) : pair.substring(begin + 1, end);
+    }
+
+    static String timestamp() {
+        long second = System.currentTimeMillis() / 1000;
+        Timestamp last = timestamp;
+        if (last.second != second) {
+            last = new Timestamp(second);
+            timestamp = last;
+        }
+        return last.text;
+    }
+
+    private String hmac(String stringToSign) {
+        byte[] rawHmac = this.macs.get().doFinal(stringToSign.getBytes(StandardCharsets.UTF_8));
+        return new String(Base64.getEncoder().encode(rawHmac), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Merges the sorted parameters with the sorted static parameters
+     */
+    private static String canonicalize(SortedMap<String, String> params, String[] staticKeys, String[] staticPairs) {
+        StringBuilder buffer = new StringBuilder(256);
+        Iterator<Map.Entry<String, String>> iter = params.entrySet().iterator();
+        Map.Entry<String, String> next = iter.hasNext() ? iter.next() : null;
+        int i = 0;
+        boolean first = true;
+        while (next != null || i < staticKeys.length) {
+            if (!first) {
+                buffer.append('&');
+            }
+            first = false;
+            if (next == null || (i < staticKeys.length && staticKeys[i].compareTo(next.getKey()) < 0)) {
+                buffer.append(staticPairs[i]);
+                i += 1;
+            } else {
+                buffer.append(percentEncodeRfc3986(next.getKey()));
+                buffer.append('=');
+                buffer.append(percentEncodeRfc3986(next.getValue()));
+                next = iter.hasNext() ? iter.next() : null;
+            }
+        }
+        return buffer.toString();
+    }
+
+    private static String percentEncodeRfc3986(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8)
+            .replace("+", "%20")
+            .replace("*", "%2A")
+            .replace("%7E", "~");
+    }
+
+}
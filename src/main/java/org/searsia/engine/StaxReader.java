@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads XML with StAX, and sends it to an ItemCollector as if it was the
+ * W3C DOM that DOMBuilder.stream2DOM builds: not namespace aware, so names
+ * keep their prefixes, and without namespace declarations, comments and
+ * processing instructions.
+ * Like in the DOM, CDATA sections are separate text nodes. Reading stops
+ * when the collector has enough items, so the rest of a large feed is not
+ * parsed at all.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class StaxReader {
+
+    private final static XMLInputFactory factory = newFactory(); // used under synchronized
+
+    private static XMLInputFactory newFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        setOptionalProperty(factory, "http://java.sun.com/xml/stream/properties/report-cdata-event");
+        setOptionalProperty(factory, "http://java.sun.com/xml/stream/properties/ignore-external-dtd");
+        return factory;
+    }
+
+    private static void setOptionalProperty(XMLInputFactory factory, String property) {
+        try {
+            factory.setProperty(property, true);
+        } catch (IllegalArgumentException e) {
+            // not supported by this StAX implementation
+        }
+    }
+
+    /**
+     * Reads an XML document
+     * @param in XML bytes
+     * @param encoding character encoding, or null to use the XML declaration
+     * @param out receives the document
+     * @throws XMLStreamException if not well-formed
+     */
+    public static void read(InputStream in, String encoding, ItemCollector out) throws XMLStreamException {
+        XMLStreamReader reader;
+        synchronized (factory) {
+            reader = (encoding == null) ? factory.createXMLStreamReader(in) : factory.createXMLStreamReader(in, encoding);
+        }
+        try {
+            StringBuilder text = new StringBuilder();
+            while (reader.hasNext() && !out.isDone()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                    if (out.current() != null) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    continue;
+                }
+                if (text.length() > 0) { // characters are reported in chunks
+                    out.text(text.toString());
+                    text.setLength(0);
+                }
+                switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    out.startElement(reader.getLocalName());
+                    if (out.current() != null) {
+                        for (int i = 0; i < reader.getAttributeCount(); i += 1) {
+                            String prefix = reader.getAttributePrefix(i);
+                            String name = reader.getAttributeLocalName(i);
+                            if (prefix != null && !prefix.isEmpty()) {
+                                if (prefix.equals("xmlns")) continue;
+                                name = prefix + ":" + name;
+                            } else if (name.equals("xmlns")) {
+                                continue; // XPath does not see namespace declarations
+                            }
+                            out.attribute(name, reader.getAttributeValue(i));
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    out.endElement();
+                    break;
+                case XMLStreamConstants.CDATA:
+                    out.text(reader.getText());
+                    break;
+                default: // comments, processing instructions, DTD
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+}
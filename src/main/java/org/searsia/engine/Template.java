@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An OpenSearch URL template (or POST template), parsed once into a list of
+ * segments: literal text and parameters like {searchTerms} or {startPage?}.
+ * Parameters with a question mark are optional. Expanding the template is
+ * a single pass over the segments.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class Template {
+
+    private final static int LITERAL = 0;
+    private final static int QUERY = 1;      // {searchTerms} (opensearch standard) or {q} (old Searsia)
+    private final static int START_PAGE = 2; // {startPage}
+    private final static int OTHER = 3;      // private parameters, or missing parameters
+
+    private final String template;
+    private final int[] kinds;
+    private final String[] texts;     // literal text or parameter name
+    private final boolean[] optional;
+
+    /**
+     * Parses a template
+     * @param template for instance "http://example.org/?q={searchTerms}&amp;page={startPage?}"
+     */
+    public Template(String template) {
+        this.template = template;
+        List<Integer> kinds = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<Boolean> optional = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            int end = (c == '{') ? template.indexOf('}', i + 1) : -1;
+            if (end > i + 1 && template.lastIndexOf('{', end) == i) {
+                if (literal.length() > 0) {
+                    kinds.add(LITERAL);
+                    texts.add(literal.toString());
+                    optional.add(false);
+                    literal.setLength(0);
+                }
+                String name = template.substring(i + 1, end);
+                boolean isOptional = name.endsWith("?");
+                if (isOptional) {
+                    name = name.substring(0, name.length() - 1);
+                }
+                if (name.equals("searchTerms") || name.equals("q")) {
+                    kinds.add(QUERY);
+                } else if (name.equals("startPage")) {
+                    kinds.add(START_PAGE);
+                } else {
+                    kinds.add(OTHER);
+                }
+                texts.add(name);
+                optional.add(isOptional);
+                i = end + 1;
+            } else {
+                literal.append(c);
+                i += 1;
+            }
+        }
+        if (literal.length() > 0) {
+            kinds.add(LITERAL);
+            texts.add(literal.toString());
+            optional.add(false);
+        }
+        int size = kinds.size();
+        this.kinds = new int[size];
+        this.texts = texts.toArray(new String[size]);
+        this.optional = new boolean[size];
+        for (int j = 0; j < size; j += 1) {
+            this.kinds[j] = kinds.get(j);
+            this.optional[j] = optional.get(j);
+        }
+    }
+
+    private static boolean isParameterName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills in the template. Private parameters take precedence. If startPage
+     * is null, {startPage} gets the indexOffset and {startPage?} is left out.
+     * Other optional parameters are left out.
+     * @param query encoded query
+     * @param startPage page number, or null
+     * @param indexOffset first page number
+     * @param privateParameters private parameters, like API keys
+     * @return filled in template
+     * @throws SearchException if a required parameter is missing
+     */
+    public String expand(String query, Integer startPage, int indexOffset, Map<String, String> privateParameters)
+            throws SearchException {
+        StringBuilder result = new StringBuilder(this.template.length() + query.length() + 16);
+        for (int i = 0; i < this.kinds.length; i += 1) {
+            String text = this.texts[i];
+            if (this.kinds[i] == LITERAL) {
+                result.append(text);
+                continue;
+            }
+            String value = privateParameters.get(text);
+            if (value != null) {
+                result.append(value);
+            } else if (this.kinds[i] == QUERY) {
+                result.append(query);
+            } else if (this.kinds[i] == START_PAGE && startPage != null) {
+                result.append(startPage);
+            } else if (this.kinds[i] == START_PAGE && !this.optional[i]) {
+                result.append(indexOffset);
+            } else if (!isParameterName(text)) { // not a parameter, e.g. JSON in a POST template
+                result.append('{').append(text).append(this.optional[i] ? "?}" : "}");
+            } else if (!this.optional[i]) {
+                throw new SearchException("Missing url parameter {" + text + "}");
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return this.template;
+    }
+
+}
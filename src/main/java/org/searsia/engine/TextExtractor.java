@@ -16,15 +16,13 @@
 
 package org.searsia.engine;
 
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import org.searsia.HTMLStripper;
 import org.searsia.Hit;
 
 /**
@@ -37,16 +35,13 @@ public class TextExtractor {
 
 	private String field;
 	private String xpath;
-	private XPathExpression compiledXpath;
+	private XPathPool compiledXpath;
 
 
 	public TextExtractor(String field, String xpath) throws XPathExpressionException {
 		this.field = field;
 		this.xpath = xpath;
-		
-		XPathFactory xpFactory = XPathFactory.newInstance();
-		XPath xp = xpFactory.newXPath();
-		compiledXpath = xp.compile(this.xpath);
+		this.compiledXpath = new XPathPool(this.xpath); // thread-safe
 	}
 
 	// TODO: This should be moved to Resource, so it also works on Searsia resources
@@ -99,21 +94,56 @@ public class TextExtractor {
 		} catch (XPathExpressionException e) { // just the STRING result does not work :-(
             resultString = (String) this.compiledXpath.evaluate(item, XPathConstants.STRING);
 		}
+		addResult(resultString, hit, urlPath);
+	}
+
+	/**
+	 * Modifies hit by adding result for the text extractor, without W3C DOM
+	 * @param model The tree model
+	 * @param item A context element
+	 * @param hit An updated hit
+	 */
+	public <N> void extract(NodeModel<N> model, N item, Hit hit, String urlPath) {
+        StringBuilder sb = new StringBuilder();
+        for (N node: this.compiledXpath.getNativePath().select(model, item)) {
+            if (sb.length() != 0) {
+                sb.append(" ");
+            }
+            sb.append(PathExpression.stringValue(model, node));
+        }
+		addResult(sb.toString(), hit, urlPath);
+	}
+
+	/**
+	 * @return true if extract works without W3C DOM
+	 */
+	public boolean hasNativePath() {
+		return this.compiledXpath.getNativePath() != null;
+	}
+
+	/**
+	 * @return the XPath query compiled for NodeModels, or null if not supported
+	 */
+	public PathExpression getNativePath() {
+		return this.compiledXpath.getNativePath();
+	}
+
+	/**
+	 * @return true if extract only needs the subtree of the item
+	 */
+	public boolean hasDownwardPath() {
+		return hasNativePath() && this.compiledXpath.getNativePath().isDownward();
+	}
+
+	void addResult(String resultString, Hit hit, String urlPath) {
 		if (!resultString.equals("")) {
 		    if (this.field.equals("url")) {
 		        resultString = absoluteUrl(urlPath, resultString);
 		    }
-			hit.put(this.field, processMatch(resultString));
+			hit.put(this.field, HTMLStripper.tagsToSpaces(resultString)); // No HTML, please: spans removed, other tags replaced by a space
 		}
 	}
 
-	private String processMatch(String s) {
-		s = s.replaceAll("(?i)</?span[^>]*>|</?b>|</?i>|</?em>|</?strong>", "");  // No HTML, please: spans removed 
-		s = s.replaceAll("<[^>]+>|\ufffd", " ");  // all other tags or unicode replace character replaced by a space 
-    	s = s.trim();  // TODO multiple spaces, \\s ?
-		return s;
-	}
-	
 	/**
 	 * Get the field for the text extractor
 	 * @return field
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A small, light-weight document tree, built by ItemCollector for the
+ * parts of a document that are needed to extract search results.
+ * Attributes are kept sorted by name, like in the W3C DOM.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class TreeNode {
+
+    public final static NodeModel<TreeNode> model = new Model();
+
+    private final int kind;
+    private final String name;
+    private final String value;
+    private TreeNode parent = null;
+    private int index = 0;                     // position in the children of parent
+    private List<TreeNode> children = null;
+    private List<TreeNode> attributes = null;
+
+    private TreeNode(int kind, String name, String value) {
+        this.kind = kind;
+        this.name = name;
+        this.value = value;
+    }
+
+    public static TreeNode document() {
+        return new TreeNode(NodeModel.DOCUMENT, null, null);
+    }
+
+    public static TreeNode element(String name) {
+        return new TreeNode(NodeModel.ELEMENT, name, null);
+    }
+
+    public static TreeNode text(String value) {
+        return new TreeNode(NodeModel.TEXT, null, value);
+    }
+
+    public void add(TreeNode child) {
+        if (this.children == null) {
+            this.children = new ArrayList<>(4);
+        }
+        child.parent = this;
+        child.index = this.children.size();
+        this.children.add(child);
+    }
+
+    public void addAttribute(String name, String value) {
+        if (this.attributes == null) {
+            this.attributes = new ArrayList<>(2);
+        }
+        TreeNode attribute = new TreeNode(NodeModel.ATTRIBUTE, name, value);
+        attribute.parent = this;
+        int i = this.attributes.size();
+        while (i > 0 && this.attributes.get(i - 1).name.compareTo(name) > 0) {
+            i -= 1;
+        }
+        this.attributes.add(i, attribute);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public TreeNode getParent() {
+        return this.parent;
+    }
+
+    /**
+     * @return children, do not change
+     */
+    List<TreeNode> getChildren() {
+        return this.children == null ? Collections.emptyList() : this.children;
+    }
+
+    /**
+     * Replaces the children by the same children in a different order
+     * @param children
+     */
+    void reorder(List<TreeNode> children) {
+        for (int i = 0; i < children.size(); i += 1) {
+            children.get(i).index = i;
+        }
+        this.children = children;
+    }
+
+
+    private static class Model implements NodeModel<TreeNode> {
+
+        @Override
+        public int kind(TreeNode node) {
+            return node.kind;
+        }
+
+        @Override
+        public String name(TreeNode node) {
+            return node.name;
+        }
+
+        @Override
+        public String value(TreeNode node) {
+            return node.value;
+        }
+
+        @Override
+        public TreeNode parent(TreeNode node) {
+            return node.parent;
+        }
+
+        @Override
+        public TreeNode firstChild(TreeNode node) {
+            return node.children == null ? null : node.children.get(0);
+        }
+
+        @Override
+        public TreeNode nextSibling(TreeNode node) {
+            if (node.kind == NodeModel.ATTRIBUTE || node.parent == null) {
+                return null;
+            }
+            List<TreeNode> siblings = node.parent.children;
+            return node.index + 1 < siblings.size() ? siblings.get(node.index + 1) : null;
+        }
+
+        @Override
+        public List<TreeNode> attributes(TreeNode node) {
+            return node.attributes == null ? Collections.emptyList() : node.attributes;
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONObject;
+
+/**
+ * Fetches pages from upstream search engines. All resources share one client,
+ * see {@link Resource#setUpstreamClient(UpstreamClient)}.
+ *
+ * @author Djoerd Hiemstra
+ */
+public interface UpstreamClient {
+
+    /**
+     * Sends the request without blocking.
+     * @param request
+     * @return future response; it fails with an IOException if the engine cannot be reached.
+     * Cancelling the future aborts the request.
+     */
+    CompletableFuture<UpstreamResponse> fetch(UpstreamRequest request);
+
+    /**
+     * Statistics for the health report
+     * @return connection pool statistics
+     */
+    JSONObject toJsonHealth();
+
+}
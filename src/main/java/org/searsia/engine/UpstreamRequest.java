@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A request to an upstream search engine: a GET or a POST with
+ * headers, a timeout (in milliseconds) and a maximum response size.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class UpstreamRequest {
+
+    private URI uri;
+    private String postString = null;
+    private Map<String, String> headers = new LinkedHashMap<>();
+    private int timeout = 9000;
+    private int maxBytes = Integer.MAX_VALUE;
+
+    public UpstreamRequest(URI uri) {
+        this.uri = uri;
+    }
+
+    public void setPostString(String postString) {
+        this.postString = postString;
+    }
+
+    public void setHeader(String key, String value) {
+        this.headers.put(key, value);
+    }
+
+    /**
+     * @param timeout deadline of the whole exchange: connecting, waiting, and reading the body
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param maxBytes maximum size of the response body
+     */
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public URI getURI() {
+        return this.uri;
+    }
+
+    public String getPostString() {
+        return this.postString;
+    }
+
+    public boolean isPost() {
+        return this.postString != null && !this.postString.equals("");
+    }
+
+    public Map<String, String> getHeaders() {
+        return this.headers;
+    }
+
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    public int getMaxBytes() {
+        return this.maxBytes;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response of an upstream search engine. The body is read completely
+ * (up to the maximum size of the request) and decoded if it was compressed
+ * before the response is returned.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class UpstreamResponse {
+
+    private int status;
+    private Map<String, List<String>> headers;
+    private PageBuffer body;
+    private long readMillis;
+    private long wireBytes;
+
+    /**
+     * @param status HTTP status code
+     * @param headers response headers
+     * @param body response body
+     * @param readMillis time spent reading the body
+     * @param wireBytes size of the body as received, i.e., compressed
+     */
+    public UpstreamResponse(int status, Map<String, List<String>> headers, PageBuffer body, long readMillis, long wireBytes) {
+        this.status  = status;
+        this.headers = headers;
+        this.body    = body;
+        this.readMillis = readMillis;
+        this.wireBytes  = wireBytes;
+    }
+
+    public UpstreamResponse(int status, Map<String, List<String>> headers, PageBuffer body, long readMillis) {
+        this(status, headers, body, readMillis, body.size());
+    }
+
+    public int getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Get the first value of a header
+     * @param name header name (case insensitive)
+     * @return header value, or null if not present
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, List<String>> entry: this.headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    public PageBuffer getBody() {
+        return this.body;
+    }
+
+    public long getReadMillis() {
+        return this.readMillis;
+    }
+
+    public long getWireBytes() {
+        return this.wireBytes;
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.engine;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Node;
+
+/**
+ * A compiled XPath expression that can be evaluated by many threads at
+ * the same time. XPathExpression is not thread-safe, so each evaluation
+ * borrows a compiled copy from a pool, and returns it afterwards.
+ * Copies are only compiled if all others are in use. If possible, the
+ * expression is also compiled to a PathExpression, which works on other
+ * trees than the W3C DOM.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class XPathPool {
+
+    private final static int maxIDLE = 16;
+    private final static XPathFactory factory = XPathFactory.newInstance(); // not thread-safe either
+
+    private final String path;
+    private final PathExpression nativePath;
+    private final Queue<XPathExpression> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nrOfIdle = new AtomicInteger(0);
+
+    /**
+     * @param path XPath expression
+     * @throws XPathExpressionException if the expression does not compile
+     */
+    public XPathPool(String path) throws XPathExpressionException {
+        this.path = path;
+        release(compile());
+        this.nativePath = PathExpression.compile(path);
+    }
+
+    private XPathExpression compile() throws XPathExpressionException {
+        synchronized (factory) {
+            return factory.newXPath().compile(this.path);
+        }
+    }
+
+    private void release(XPathExpression expression) {
+        if (this.nrOfIdle.incrementAndGet() <= maxIDLE) {
+            this.idle.offer(expression);
+        } else {
+            this.nrOfIdle.decrementAndGet();
+        }
+    }
+
+    /**
+     * Evaluates the expression
+     * @param item context node
+     * @param returnType for instance XPathConstants.NODESET
+     * @return result of returnType
+     * @throws XPathExpressionException
+     */
+    public Object evaluate(Node item, QName returnType) throws XPathExpressionException {
+        XPathExpression expression = this.idle.poll();
+        if (expression == null) {
+            expression = compile();
+        } else {
+            this.nrOfIdle.decrementAndGet();
+        }
+        try {
+            return expression.evaluate(item, returnType);
+        } finally {
+            release(expression);
+        }
+    }
+
+    /**
+     * @return the expression compiled for NodeModels, or null if not supported
+     */
+    public PathExpression getNativePath() {
+        return this.nativePath;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+}
@@ -47,6 +47,7 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.searsia.engine.CircuitBreaker;
 import org.searsia.engine.Resource;
 
 /**
@@ -386,10 +387,14 @@ public class ResourceIndex {
 	public JSONObject toJsonHealth() {
 	    String lastMessage = null;
 	    int countOk = 0,
-	        countError = 0;
+	        countError = 0,
+	        countOpen = 0;
 	    for (Resource engine: this.engines.values()) {
             if (engine.isDeleted()) { continue; }
 	        String error = engine.getLastError();
+	        if (!CircuitBreaker.CLOSED.equals(engine.getCircuitState())) {
+	            countOpen += 1;
+	        }
 	        if (engine.isHealthy()) {
 	            countOk += 1;
 	        } else {
@@ -409,6 +414,7 @@ public class ResourceIndex {
 	    JSONObject stats = new JSONObject();
 	    stats.put("enginesok", countOk);
         stats.put("engineserr", countError);
+        stats.put("enginesopen", countOpen);
         if (lastMessage != null) {
             stats.put("lastmessage", lastMessage);
         }
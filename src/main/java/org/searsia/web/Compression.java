@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Compresses responses with gzip or deflate, if the client accepts it
+ * (Accept-Encoding) and if the response is at least the minimum size of
+ * its endpoint ('searsia' or 'opensearch', see ServerTuning). The filter
+ * decides, the interceptor compresses while the body is written. Streamed
+ * responses are not compressed, as their events must not wait in a buffer.
+ * Compression uses the fastest level, so it can stay on under load.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class Compression implements ContainerResponseFilter, WriterInterceptor {
+
+    private final static String ENCODING = "org.searsia.web.Compression.encoding"; // request property
+    private final static int compressionLevel = Deflater.BEST_SPEED;
+    private final static int bufferSize = 8192;  // unit: bytes
+
+    private final Map<String, Integer> minSizes = new HashMap<>();
+
+    /**
+     * @param tuning server settings with the minimum size per endpoint
+     */
+    public Compression(ServerTuning tuning) {
+        for (String endpoint: ServerTuning.compressedEndpoints) {
+            this.minSizes.put(endpoint, tuning.getCompressionMinSize(endpoint));
+        }
+    }
+
+    /**
+     * Chooses the encoding: gzip if accepted, otherwise deflate.
+     * @param acceptEncoding value of Accept-Encoding, or null
+     * @return "gzip", "deflate", or null if neither is accepted
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean gzip = false, deflate = false, any = false;
+        for (String coding: acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i += 1) {
+                String param = parts[i].trim().toLowerCase();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0.0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = accepted;
+            } else if (name.equals("deflate")) {
+                deflate = accepted;
+            } else if (name.equals("*")) {
+                any = accepted;
+            }
+        }
+        if (gzip || (any && !acceptEncoding.toLowerCase().contains("gzip"))) {
+            return "gzip";
+        }
+        if (deflate) {
+            return "deflate";
+        }
+        return null;
+    }
+
+    private int minSize(ContainerRequestContext request) {
+        String path = request.getUriInfo().getPath(false);
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int slash = path.indexOf('/');
+        Integer minSize = this.minSizes.get(slash == -1 ? path : path.substring(0, slash));
+        return (minSize == null) ? -1 : minSize;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        Object entity = response.getEntity();
+        int minSize = minSize(request);
+        int size;
+        if (entity instanceof String) {
+            size = ((String) entity).length(); // characters: at least as many bytes
+        } else if (entity instanceof SearsiaEntity) {
+            size = ((SearsiaEntity) entity).estimatedSize();
+        } else {
+            return;
+        }
+        if (minSize < 0 || size < minSize || response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            return;
+        }
+        response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String encoding = negotiate(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != null) {
+            response.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+            request.setProperty(ENCODING, encoding);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Object encoding = context.getProperty(ENCODING);
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+        context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        OutputStream out = context.getOutputStream();
+        Deflater deflater = new Deflater(compressionLevel, encoding.equals("gzip")); // gzip: no zlib header
+        DeflaterOutputStream compressed = encoding.equals("gzip") ?
+            new GzipStream(out, deflater) : new DeflaterOutputStream(out, deflater, bufferSize);
+        context.setOutputStream(compressed);
+        try {
+            context.proceed();
+            compressed.finish();
+        } finally {
+            deflater.end(); // free its memory now, the stream is not closed here
+        }
+    }
+
+    /**
+     * GZIPOutputStream with our own Deflater, that is, with our own level.
+     */
+    private static class GzipStream extends GZIPOutputStream {
+        GzipStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, bufferSize);
+            this.def.end(); // default Deflater was not used yet
+            this.def = deflater;
+        }
+    }
+
+}
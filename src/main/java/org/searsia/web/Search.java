@@ -19,21 +19,40 @@ package org.searsia.web;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.OPTIONS;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.json.JSONArray;
 import org.json.JSONObject;
+import org.searsia.Hit;
+import org.searsia.Main;
 import org.searsia.SearchResult;
 import org.searsia.SearsiaOptions;
+import org.searsia.Threads;
 import org.searsia.index.SearchResultIndex;
 import org.searsia.index.ResourceIndex;
 import org.searsia.engine.Resource;
@@ -49,22 +68,36 @@ import org.searsia.engine.SearchException;
 public class Search {
 
     private final static Logger LOGGER = Logger.getLogger(Search.class.getName());
+    public final static String NDJSON_MIME_TYPE = "application/x-ndjson";
+    public final static String SSE_MIME_TYPE    = "text/event-stream";
     private final static DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
     private final static String startTime = dateFormat.format(new Date());
+    private final static int fanoutResources = 5;     // resources searched by default in a fan-out search
+    private final static int fanoutMaxResources = 20;
+    private final static long fanoutDeadline = 3000;  // unit: milliseconds
+    private final static long streamDeadline = 10000; // unit: milliseconds
+    private final static int fusionRank = 60;         // k in reciprocal rank fusion
+    private final static long asyncTimeout = 30000;   // unit: milliseconds (after which a waiting request gets 503)
 	
     private ResourceIndex engines;
     private SearchResultIndex index;
     private boolean health;
+    private final ServerTuning serverTuning;
     private boolean shared;
     private long nrOfQueriesOk = 0;
     private long nrOfQueriesError = 0;
+    private final SingleFlight<String, SearchResult> flights = new SingleFlight<>();
+
+    private final ExecutorService executor;  // for upstream work that waits
 
 
 	public Search(SearchResultIndex index, ResourceIndex engines, SearsiaOptions options) throws IOException {
 		this.engines = engines;
     	this.index   = index;
     	this.health  = !options.isNoHealthReport();
+    	this.serverTuning = options.getServerTuning();
     	this.shared  = !options.isNotShared();
+    	this.executor = Threads.newExecutor("searsia-upstream", options.isVirtualThreads());
 	}
 		
 	@OPTIONS @Path("{resourceid}")
@@ -78,18 +111,49 @@ public class Search {
 
 	// TODO: gives 406 not acceptable with "Accept: application/json"
 	
+	/**
+	 * Searches without holding on to the web server's thread: Local
+	 * searches are answered right away, remote searches are answered
+	 * when the upstream search is done.
+	 */
 	@GET @Path("{resourceid}")
 	@Produces(SearchResult.SEARSIA_MIME_ENCODING)
-	public Response query(@PathParam("resourceid")  String resourceid, 
-	                      @QueryParam("q")          String searchTerms,
-	                      @QueryParam("type")       String resultType,
-                          @QueryParam("resources")  String countResources, 
-	                      @QueryParam("page")       String startPage) {
+	public void query(@Suspended AsyncResponse response,
+	                  @Context Request request,
+	                  @PathParam("resourceid")  String resourceid, 
+	                  @QueryParam("q")          String searchTerms,
+	                  @QueryParam("type")       String resultType,
+	                  @QueryParam("resources")  String countResources, 
+	                  @QueryParam("page")       String startPage) {
+	    resume(response, search(request, resourceid, searchTerms, resultType, countResources, startPage));
+	}
+
+	/**
+	 * Searches, and waits for the response.
+	 */
+	public Response query(String resourceid, String searchTerms, String resultType, String countResources, String startPage) {
+	    return search(null, resourceid, searchTerms, resultType, countResources, startPage).join();
+	}
+
+	private void resume(AsyncResponse response, CompletableFuture<Response> future) {
+	    response.setTimeout(asyncTimeout, TimeUnit.MILLISECONDS);
+	    response.setTimeoutHandler(late -> late.resume(SearsiaApplication.responseError(503, "Timeout")));
+	    future.whenComplete((result, e) -> {
+	        if (e != null) {
+	            response.resume(e);
+	        } else {
+	            response.resume(result);
+	        }
+	    });
+	}
+
+	private CompletableFuture<Response> search(Request request, String resourceid, String searchTerms, String resultType,
+	                                           String countResources, String startPage) {
         LOGGER.finest("Web call " + resourceid + ": " + searchTerms + ", " + resultType);
         resourceid = resourceid.replaceAll("\\.json$", "");
 		Resource me = engines.getMyself();
 		if (!resourceid.equals(me.getId())) {
-		    return getRemoteResults(resourceid, searchTerms); // TODO: also pass resultType to remote Searsia engines?
+		    return getRemoteResults(resourceid, searchTerms, request); // TODO: also pass resultType to remote Searsia engines?
 		} else {
 		    Integer max = 10, start = 0;
 		    if (countResources != null) {
@@ -110,82 +174,373 @@ public class Search {
                 }
                 if (start < 0) { start = 0; }
             }
-		    return getLocalResults(searchTerms, resultType, max, start);
+		    return getLocalResults(searchTerms, resultType, max, start); // fast path, unless mother is asked
+		}
+	}
+
+    /**
+     * Fan-out search: searches the best resources for the query in parallel,
+     * and merges their results. Resources that did not answer before the
+     * deadline are left out, but their results are still cached.
+     */
+	@GET @Path("{resourceid}/fanout")
+	@Produces(SearchResult.SEARSIA_MIME_ENCODING)
+	public void fanout(@Suspended AsyncResponse response,
+	                   @PathParam("resourceid")  String resourceid,
+	                   @QueryParam("q")          String searchTerms,
+	                   @QueryParam("type")       String resultType,
+	                   @QueryParam("resources")  String countResources) {
+	    resume(response, fanoutSearch(resourceid, searchTerms, resultType, countResources));
+	}
+
+	public Response fanout(String resourceid, String searchTerms, String resultType, String countResources) {
+	    return fanoutSearch(resourceid, searchTerms, resultType, countResources).join();
+	}
+
+	private CompletableFuture<Response> fanoutSearch(String resourceid, String searchTerms, String resultType, String countResources) {
+		Response error = checkFanout(resourceid, searchTerms, "fanout");
+		if (error != null) {
+		    return CompletableFuture.completedFuture(error);
+		}
+		Map<String, CompletableFuture<SearchResult>> searches = startFanout(searchTerms, resultType, countResources);
+		return CompletableFuture.allOf(searches.values().toArray(new CompletableFuture<?>[0]))
+		    .handle((all, e) -> (Void) null)  // some searches failed: use the others
+		    .completeOnTimeout(null, fanoutDeadline, TimeUnit.MILLISECONDS)  // some are late: use the others
+		    .thenApplyAsync(all -> fanoutResponse(searchTerms, searches), this.executor);
+	}
+
+	private Response fanoutResponse(String searchTerms, Map<String, CompletableFuture<SearchResult>> searches) {
+		List<SearchResult> results = new ArrayList<>();
+		JSONObject report = new JSONObject();
+		for (Map.Entry<String, CompletableFuture<SearchResult>> search: searches.entrySet()) {
+		    String rid = search.getKey();
+		    CompletableFuture<SearchResult> future = search.getValue();
+		    if (!future.isDone()) {
+		        report.put(rid, "timeout");
+		    } else if (future.isCompletedExceptionally()) {
+		        report.put(rid, "error");
+		    } else {
+		        results.add(resultOf(rid, future.join()));
+		        report.put(rid, "ok");
+		    }
+		}
+		if (results.isEmpty() && !searches.isEmpty()) {
+		    this.nrOfQueriesError += 1;
+		    return SearsiaApplication.responseError(503, "No resources available for fan-out");
+		}
+		this.nrOfQueriesOk += 1;
+		LOGGER.info("Fan-out " + searches.size() + ": " + searchTerms);
+		JSONObject fields = new JSONObject();
+		fields.put("fanout", report);
+		fields.put("resource", engines.getMyself().toJson());
+		return SearsiaApplication.responseOk(SearchResult.fuse(results, fusionRank), false, fields);
+	}
+
+    /**
+     * Streaming fan-out search: like fanout, but the hits of each resource
+     * are sent as soon as the resource answers, as newline-delimited json,
+     * or as server-sent events if the client accepts "text/event-stream".
+     * Events: "start" (the resources), "hits" or "error" (per resource),
+     * and "done" (resources that did not answer in time, if any). The
+     * events are written when the searches complete, so no thread of the
+     * web server waits for them.
+     */
+	@GET @Path("{resourceid}/stream")
+	@Produces({NDJSON_MIME_TYPE, SSE_MIME_TYPE})
+	public Response stream(@PathParam("resourceid")  String resourceid,
+	                       @QueryParam("q")          String searchTerms,
+	                       @QueryParam("type")       String resultType,
+	                       @QueryParam("resources")  String countResources,
+	                       @HeaderParam("Accept")    String accept) {
+	    return stream(resourceid, searchTerms, resultType, countResources, accept, new ChunkedOutput<String>(String.class));
+	}
+
+	Response stream(String resourceid, String searchTerms, String resultType, String countResources, String accept,
+	                ChunkedOutput<String> output) {
+		Response error = checkFanout(resourceid, searchTerms, "stream");
+		if (error != null) {
+		    return error;
+		}
+		boolean sse = accept != null && accept.contains(SSE_MIME_TYPE);
+		Map<String, CompletableFuture<SearchResult>> searches = startFanout(searchTerms, resultType, countResources);
+		this.nrOfQueriesOk += 1;
+		LOGGER.info("Stream " + searches.size() + ": " + searchTerms);
+		EventStream events = new EventStream(output, sse, searches);
+		JSONObject start = new JSONObject();
+		start.put("resources", new JSONArray(searches.keySet()));
+		start.put("searsia", SearsiaApplication.VERSION);
+		events.write("start", start);
+		for (Map.Entry<String, CompletableFuture<SearchResult>> search: searches.entrySet()) {
+		    search.getValue().whenCompleteAsync((result, e) -> events.resourceDone(search.getKey(), result, e), this.executor);
+		}
+		if (searches.isEmpty()) {
+		    events.finish();
+		} else {
+		    CompletableFuture.delayedExecutor(streamDeadline, TimeUnit.MILLISECONDS, this.executor).execute(events::finish);
+		}
+		return Response.ok(output)
+		        .type(sse ? SSE_MIME_TYPE : NDJSON_MIME_TYPE)
+		        .header("Access-Control-Allow-Origin", "*")
+		        .header("Cache-Control", "no-cache")
+		        .build();
+	}
+
+	/**
+	 * Events of a streaming search. Resources that answer after the
+	 * "done" event, are not written.
+	 */
+	private static class EventStream {
+
+	    private final ChunkedOutput<String> output;
+	    private final boolean sse;
+	    private final Map<String, CompletableFuture<SearchResult>> searches;
+	    private int todo;
+	    private boolean closed = false;
+
+	    private EventStream(ChunkedOutput<String> output, boolean sse, Map<String, CompletableFuture<SearchResult>> searches) {
+	        this.output = output;
+	        this.sse = sse;
+	        this.searches = searches;
+	        this.todo = searches.size();
+	    }
+
+	    private synchronized void resourceDone(String rid, SearchResult result, Throwable e) {
+	        if (this.closed) {
+	            return;  // too late
+	        }
+	        JSONObject event = new JSONObject();
+	        event.put("rid", rid);
+	        if (e == null) {
+	            event.put("hits", resultOf(rid, result).toJson().getJSONArray("hits"));
+	            write("hits", event);
+	        } else {
+	            Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+	            event.put("error", cause.getMessage());
+	            write("error", event);
+	        }
+	        this.todo -= 1;
+	        if (this.todo == 0) {
+	            finish();
+	        }
+	    }
+
+	    private synchronized void finish() {
+	        if (this.closed) {
+	            return;
+	        }
+	        JSONObject end = new JSONObject();
+	        JSONArray late = new JSONArray();
+	        for (Map.Entry<String, CompletableFuture<SearchResult>> search: this.searches.entrySet()) {
+	            if (!search.getValue().isDone()) late.put(search.getKey());
+	        }
+	        end.put("timeout", late);
+	        write("done", end);
+	        close();
+	    }
+
+	    private void close() {
+	        this.closed = true;
+	        try {
+	            this.output.close();
+	        } catch (IOException e) {
+	            LOGGER.finest("Stream closed: " + e.getMessage());
+	        }
+	    }
+
+	    private synchronized void write(String name, JSONObject event) {
+	        if (this.closed) {
+	            return;
+	        }
+	        String chunk;
+	        if (this.sse) {
+	            chunk = "event: " + name + "\ndata: " + event.toString() + "\n\n";
+	        } else {
+	            event.put("event", name);
+	            chunk = event.toString() + "\n";
+	        }
+	        try {
+	            this.output.write(chunk);  // the client gets it now
+	        } catch (IOException e) {   // client went away
+	            LOGGER.finest("Stream closed: " + e.getMessage());
+	            close();
+	        }
+	    }
+	}
+
+	private Response checkFanout(String resourceid, String searchTerms, String mode) {
+        resourceid = resourceid.replaceAll("\\.json$", "");
+		if (!resourceid.equals(engines.getMyself().getId())) {
+		    String message = "Not found: " + resourceid + "/" + mode;
+		    LOGGER.warning(message);
+		    return SearsiaApplication.responseError(404, message);
+		}
+		if (searchTerms == null || searchTerms.trim().length() == 0) {
+		    return SearsiaApplication.responseError(400, "Fan-out needs a query");
 		}
+		return null;
 	}
 
-    private Response getRemoteResults(String resourceid, String query) {
+	/**
+	 * Starts searching the best resources for the query
+	 * @return future results by resource id
+	 */
+	private Map<String, CompletableFuture<SearchResult>> startFanout(String searchTerms, String resultType, String countResources) {
+		int max = fanoutResources;
+		if (countResources != null) {
+		    try {
+		        max = Integer.parseInt(countResources);
+		    } catch (NumberFormatException e) {
+		        max = fanoutResources;
+		    }
+		    if (max > fanoutMaxResources) { max = fanoutMaxResources; }
+		    if (max < 1) { max = 1; }
+		}
+		Map<String, CompletableFuture<SearchResult>> searches = new LinkedHashMap<>();
+		for (String rid: engines.topValuesNotDeleted(searchTerms, resultType, max).keySet()) {
+		    Resource engine = engines.get(rid);
+		    String redirect = engine.getDirectAccess();
+		    if (redirect != null && redirect.equals("yes")) {
+		        continue;  // the client must search it
+		    }
+		    SearchResult cached = index.cacheSearch(searchTerms, rid);
+		    if (cached != null) {
+		        searches.put(rid, CompletableFuture.completedFuture(cached));
+		    } else {
+		        searches.put(rid, remoteSearch(engine, searchTerms));
+		    }
+		}
+		return searches;
+	}
+
+	private static SearchResult resultOf(String rid, SearchResult shared) {
+	    SearchResult result = shared.copyHits();
+	    for (Hit hit: result.getHits()) {
+	        hit.remove("query");  // cached hits have it
+	        hit.put("rid", rid);
+	    }
+	    return result;
+	}
+
+    /**
+     * Searches a resource without blocking. Only if the resource is asked
+     * from the mother, a thread of the executor waits for the answer.
+     */
+    private CompletableFuture<Response> getRemoteResults(String resourceid, String query, Request request) {
         Resource engine = engines.get(resourceid);
         Resource mother = engines.getMother();
-        JSONObject json = null;
-        if (engine == null || engine.getLastUpdatedSecondsAgo() > 9600) {  // unknown or really old? ask your mother
-            if (mother != null) {     // TODO: option for 9600 and similar value (7200) in Main
-                try {
-                    Resource newEngine  = mother.searchResource(resourceid);
-                    engine = newEngine;
-                    engines.put(engine);
-                } catch (SearchException e) {
-                    if (engine != null) {
-                        LOGGER.warning("Not found at mother: " + resourceid);
-                    }
-                }
+        if ((engine == null || engine.getLastUpdatedSecondsAgo() > 9600) && mother != null) {  // unknown or really old? ask your mother
+            return CompletableFuture.supplyAsync(() -> askMother(mother, resourceid, engine), this.executor) // TODO: option for 9600 and similar value (7200) in Main
+                .thenCompose(newEngine -> getRemoteResults(resourceid, newEngine, query, request));
+        }
+        return getRemoteResults(resourceid, engine, query, request);
+    }
+
+    private Resource askMother(Resource mother, String resourceid, Resource engine) {
+        try {
+            Resource newEngine  = mother.searchResource(resourceid, engine);
+            if (newEngine != engine) {  // not the same if modified
+                engine = newEngine;
+                engines.put(engine);
             }
-            if (engine == null) {
-                String message = "Not found: " + resourceid;
-                LOGGER.warning(message);
-                return SearsiaApplication.responseError(404, message);
+        } catch (SearchException e) {
+            if (engine != null) {
+                LOGGER.warning("Not found at mother: " + resourceid);
             }
         }
+        return engine;
+    }
+
+    private CompletableFuture<Response> getRemoteResults(String resourceid, Resource engine, String query, Request request) {
+        if (engine == null) {
+            String message = "Not found: " + resourceid;
+            LOGGER.warning(message);
+            return CompletableFuture.completedFuture(SearsiaApplication.responseError(404, message));
+        }
         if (engine.isDeleted()) {
             String message = "Gone: " + resourceid;
             LOGGER.warning(message);
-            return SearsiaApplication.responseError(410, message);
+            return CompletableFuture.completedFuture(SearsiaApplication.responseError(410, message));
         }
-        
         if (query != null && query.trim().length() > 0) {
             try {
             	String redirect = engine.getDirectAccess();
                 if (redirect != null && redirect.equals("yes")) {
                 	LOGGER.info("Redirect: " + resourceid);
-                    return SearsiaApplication.responseRedirect(engine.redirectSearch(query));
+                    return CompletableFuture.completedFuture(SearsiaApplication.responseRedirect(engine.redirectSearch(query)));
                 }       	
                 SearchResult result = index.cacheSearch(query, engine.getId());
                 if (result != null) {
                     boolean censorQueryResourceId = true;
-                    json = result.toJson(censorQueryResourceId);
                     LOGGER.info("Cache " + resourceid + ": " + query);
-                } else {
-                    result = engine.search(query);
-                    result.removeResource();     // only trust your mother
-                    json = result.toJson();                         // first json for response, so
-                    result.addResourceDate(engine.getId()); // response will not have resource id + date
-                    index.offer(result);  //  maybe do this AFTER the http response is sent:  https://jersey.java.net/documentation/latest/async.html (11.1.1)
-                    LOGGER.info("Query " + resourceid + ": " + query);
+                    return CompletableFuture.completedFuture(responseWithResource(result, censorQueryResourceId, engine));
                 }
             } catch (Exception e) {
-                String message = "Resource " + resourceid + " unavailable: " + e.getMessage();
-                LOGGER.warning(message);
-                return SearsiaApplication.responseError(503, message);
+                return CompletableFuture.completedFuture(unavailable(resourceid, e));
             }
-        } else {
-            json = new JSONObject();
-            if (this.health) {
-                json.put("health", engine.toJsonHealth());
-            }
-            LOGGER.info("Resource " + resourceid + ".");
+            return remoteSearch(engine, query).handleAsync((result, e) -> { // shared with concurrent identical queries
+                if (e != null) {
+                    return unavailable(resourceid, (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e);
+                }
+                return responseWithResource(result, false, engine);
+            }, this.executor);
         }
+        JSONObject resource = this.shared ? engine.toJson() : engine.toJsonEngineDontShare();
+        Date modified = new Date(engine.getUpSince()); // resource only: children may ask if it changed
+        EntityTag tag = new EntityTag(Main.getHashString(resource.toString()), true); // weak: health may differ
+        Response.ResponseBuilder notModified = (request == null) ? null : request.evaluatePreconditions(modified, tag);
+        if (notModified != null) {
+            LOGGER.info("Resource " + resourceid + ": not modified.");
+            return CompletableFuture.completedFuture(notModified.tag(tag).header("Access-Control-Allow-Origin", "*").build());
+        }
+        JSONObject json = new JSONObject();
+        if (this.health) {
+            json.put("health", engine.toJsonHealth());
+        }
+        json.put("resource", resource);
+        LOGGER.info("Resource " + resourceid + ".");
+        return CompletableFuture.completedFuture(SearsiaApplication.responseOk(json, tag, modified));
+    }
+
+    private Response responseWithResource(SearchResult result, boolean censorQueryResourceId, Resource engine) {
+        JSONObject fields = new JSONObject();
         if (this.shared) {
-            json.put("resource", engine.toJson());
+            fields.put("resource", engine.toJson());
         } else {
-            json.put("resource", engine.toJsonEngineDontShare());
+            fields.put("resource", engine.toJsonEngineDontShare());
         }
-        return SearsiaApplication.responseOk(json);
+        return SearsiaApplication.responseOk(result, censorQueryResourceId, fields);
+    }
+
+    private static Response unavailable(String resourceid, Throwable e) {
+        String message = "Resource " + resourceid + " unavailable: " + e.getMessage();
+        LOGGER.warning(message);
+        return SearsiaApplication.responseError(503, message);
+    }
+
+    /**
+     * Searches the engine, unless the same query is already in flight:
+     * concurrent identical queries share one upstream request, and its
+     * result is offered to the cache once.
+     * @return future hits for the response, which must not be changed
+     */
+    private CompletableFuture<SearchResult> remoteSearch(Resource engine, String query) {
+        String key = engine.getId() + "\n" + query.trim().replaceAll("\\s+", " ") + "\n"; // page is not passed on yet
+        return this.flights.execute(key, () -> engine.searchAsync(query, null, null).thenApply(result -> {
+            result.removeResource();     // only trust your mother
+            SearchResult hits = result.copyHits();  // first hits for response, so
+            result.addResourceDate(engine.getId()); // response will not have resource id + date
+            index.offer(result);  //  maybe do this AFTER the http response is sent:  https://jersey.java.net/documentation/latest/async.html (11.1.1)
+            LOGGER.info("Query " + engine.getId() + ": " + query);
+            return hits;
+        }));
     }
 
-    private Response getLocalResults(String query, String type, int max, int start) {  
-        JSONObject json = null, healthJson = null;
+    /**
+     * Searches the local index. Only if the index has no hits, the
+     * mother is asked, without blocking.
+     */
+    private CompletableFuture<Response> getLocalResults(String query, String type, int max, int start) {  
         Resource mother = engines.getMother();
-        Resource me     = engines.getMyself();
         SearchResult result = null;
         LOGGER.finest("Local query: " + query + ", " + type);
         if (query != null && query.trim().length() > 0) {
@@ -195,19 +550,33 @@ public class Search {
                 String message = "Service unavailable: " + e.getMessage();
                 LOGGER.warning(message);
                 this.nrOfQueriesError += 1;
-                return SearsiaApplication.responseError(503, message);
+                return CompletableFuture.completedFuture(SearsiaApplication.responseError(503, message));
             }
             this.nrOfQueriesOk += 1;
             if (result.getHits().isEmpty() && mother != null) {  // empty? ask mother!
-                try {
-                    result  = mother.search(query);
-                    index.offer(result);  // really trust mother
-                } catch (SearchException e) {
-                    LOGGER.warning("Mother not available");
-                } catch (Exception e) {
-                    LOGGER.warning(e.toString());
-                }
+                SearchResult localResult = result;
+                return mother.searchAsync(query, null, null).handleAsync((motherResult, e) -> {
+                    if (e != null) {
+                        Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+                        LOGGER.warning(cause instanceof SearchException ? "Mother not available" : cause.toString());
+                        return localResponse(localResult, query, type, max, start);
+                    }
+                    try {
+                        index.offer(motherResult);  // really trust mother
+                    } catch (Exception ex) {
+                        LOGGER.warning(ex.toString());
+                    }
+                    return localResponse(motherResult, query, type, max, start);
+                }, this.executor);
             }
+        }
+        return CompletableFuture.completedFuture(localResponse(result, query, type, max, start));
+    }
+
+    private Response localResponse(SearchResult result, String query, String type, int max, int start) {
+        JSONObject fields = new JSONObject(), healthJson = null;
+        Resource me = engines.getMyself();
+        if (result != null) {
             result.scoreResourceSelection(query, type, engines, max, start);
             LOGGER.info("Local: " + query);
         } else { // no query: create a 'resource only' result, plus health report
@@ -218,15 +587,16 @@ public class Search {
                 healthJson.put("requestsok", this.nrOfQueriesOk);
                 healthJson.put("requestserr", this.nrOfQueriesError);
                 healthJson.put("upsince", startTime);
+                healthJson.put("upstream", Resource.getUpstreamClient().toJsonHealth());
+                healthJson.put("server", this.serverTuning.toJsonHealth());
             }
             LOGGER.info("Local.");
         }
-        json = result.toJson();
-        json.put("resource", me.toJson());
+        fields.put("resource", me.toJson());
         if (healthJson != null) {
-            json.put("health", healthJson);
+            fields.put("health", healthJson);
         }
-        return SearsiaApplication.responseOk(json);
+        return SearsiaApplication.responseOk(result, false, fields);
     }
 
 }
@@ -17,13 +17,16 @@
 package org.searsia.web;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Response;
 
 import org.glassfish.jersey.server.ResourceConfig;
 import org.json.JSONObject;
+import org.searsia.SearchResult;
 import org.searsia.SearsiaOptions;
 import org.searsia.index.SearchResultIndex;
 import org.searsia.index.ResourceIndex;
@@ -45,6 +48,31 @@ public class SearsiaApplication extends ResourceConfig {
 				.build();
 	}
 
+	protected static Response responseOk(JSONObject json, EntityTag tag, Date lastModified) {
+		json.put("searsia", VERSION);
+		return  Response
+				.ok(json.toString())
+				.header("Access-Control-Allow-Origin", "*")
+				.tag(tag)
+				.lastModified(lastModified)
+				.build();
+	}
+
+	/**
+	 * Response with hits that are written straight to the response stream
+	 * @param result search result, the hits must not change anymore
+	 * @param censorQueryResourceId if true, leave out "query" and "rid" from hits
+	 * @param fields other fields, for instance "resource"
+	 * @return response
+	 */
+	protected static Response responseOk(SearchResult result, boolean censorQueryResourceId, JSONObject fields) {
+		fields.put("searsia", VERSION);
+		return  Response
+				.ok(new SearsiaEntity(result, censorQueryResourceId, fields))
+				.header("Access-Control-Allow-Origin", "*")
+				.build();
+	}
+
 	protected static Response responseError(int status, String error) {
 		JSONObject json = new JSONObject();
 		json.put("searsia", VERSION);
@@ -84,6 +112,8 @@ public class SearsiaApplication extends ResourceConfig {
 		register(new Search(index, engines, options));
 		register(new OpenSearch(engines, options.isNotShared()));
         register(new Redirect(engines.getMyself().getId()));
+        register(new Compression(options.getServerTuning()));
+        register(SearsiaEntityWriter.class);
 	}
 	
 }
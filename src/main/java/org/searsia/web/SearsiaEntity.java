@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.web;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.searsia.SearchResult;
+
+/**
+ * Body of a search response: the hits of a search result, and other fields,
+ * like "resource" and "health". The hits are not converted to json until
+ * they are written to the response (see SearsiaEntityWriter), so a response
+ * is written in one pass. The other fields are small json objects.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class SearsiaEntity {
+
+    private final static int hitSize = 100; // unit: bytes (a rough guess, for estimatedSize)
+
+    private final SearchResult result;
+    private final boolean censorQueryResourceId;
+    private final JSONObject fields;
+
+    /**
+     * @param result search result, the hits must not change anymore
+     * @param censorQueryResourceId if true, leave out "query" and "rid" from hits
+     * @param fields other fields of the response
+     */
+    public SearsiaEntity(SearchResult result, boolean censorQueryResourceId, JSONObject fields) {
+        this.result = result;
+        this.censorQueryResourceId = censorQueryResourceId;
+        this.fields = fields;
+    }
+
+    /**
+     * Writes the response as json.
+     * @param out
+     * @throws IOException
+     */
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\"hits\":");
+        this.result.writeHits(out, this.censorQueryResourceId);
+        for (String key: this.fields.keySet()) {
+            out.write(',');
+            JSONObject.quote(key, out);
+            out.write(':');
+            Object value = this.fields.get(key);
+            if (value instanceof JSONObject) {
+                ((JSONObject) value).write(out);
+            } else if (value instanceof JSONArray) {
+                ((JSONArray) value).write(out);
+            } else {
+                out.write(JSONObject.valueToString(value));
+            }
+        }
+        out.write('}');
+    }
+
+    /**
+     * @return rough size of the json, without writing it
+     */
+    public int estimatedSize() {
+        return this.result.getHits().size() * hitSize + this.fields.length() * hitSize;
+    }
+
+    /**
+     * @return the response as a json string
+     */
+    @Override
+    public String toString() {
+        StringWriter out = new StringWriter();
+        try {
+            writeJson(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringWriter does not throw
+        }
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.web;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.AbstractThreadPool;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.grizzly.threadpool.ThreadPoolProbe;
+import org.json.JSONObject;
+
+/**
+ * Settings of the Grizzly web server: worker threads, selector threads,
+ * keep-alive, timeouts and request sizes, and the minimum size of compressed
+ * responses per endpoint (see Compression). Settings that are not given keep
+ * Grizzly's defaults. The settings are read from a config file (a Java
+ * properties file, option '-f'), for instance:
+ *
+ *   workers = 64
+ *   workerqueue = 1000
+ *   keepalive.idle = 30
+ *   compression.searsia = 2048
+ *
+ * The health report shows the settings in effect and how busy the workers are.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class ServerTuning {
+
+    public final static String[] compressedEndpoints = { "searsia", "opensearch" };
+    private final static int defaultCOMPRESSIONMINSIZE = 1024; // unit: bytes
+
+    private final static Set<String> settings = new HashSet<>(Arrays.asList(
+        "workers",            // number of worker threads
+        "workerqueue",        // maximum number of requests waiting for a worker (-1 = no limit)
+        "selectors",          // number of selector threads
+        "backlog",            // maximum number of connections waiting to be accepted
+        "keepalive.requests", // maximum number of requests on one connection (-1 = no limit)
+        "keepalive.idle",     // unit: seconds (idle time before a kept-alive connection is closed, -1 = no limit)
+        "idletimeout",        // unit: seconds (maximum time to wait for a read or write)
+        "maxheadersize",      // unit: bytes
+        "maxheaders",         // maximum number of request headers
+        "maxrequestsize",     // unit: bytes (maximum size of a request body)
+        "compression.searsia",      // unit: bytes (minimum size of compressed responses, -1 = no compression)
+        "compression.opensearch")); // unit: bytes (idem, for OpenSearch descriptions)
+
+    private final Properties values = new Properties();
+    private HttpServer server = null;
+    private boolean virtual = false;
+    private final AtomicInteger busy = new AtomicInteger(0);
+    private final AtomicInteger peakBusy = new AtomicInteger(0);
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private final ThreadPoolProbe probe = new ThreadPoolProbe.Adapter() {
+        @Override
+        public void onTaskQueueEvent(AbstractThreadPool pool, Runnable task) {
+            queued.incrementAndGet();
+        }
+        @Override
+        public void onTaskDequeueEvent(AbstractThreadPool pool, Runnable task) {
+            queued.decrementAndGet();
+            peakBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+        }
+        @Override
+        public void onTaskCancelEvent(AbstractThreadPool pool, Runnable task) {
+            queued.decrementAndGet();
+        }
+        @Override
+        public void onTaskCompleteEvent(AbstractThreadPool pool, Runnable task) {
+            busy.decrementAndGet();
+            completed.increment();
+        }
+        @Override
+        public void onTaskQueueOverflowEvent(AbstractThreadPool pool) {
+            rejected.increment();
+        }
+    };
+
+
+    /**
+     * Adds settings, for instance from a config file.
+     * @param properties
+     * @throws IllegalArgumentException if a setting is unknown or not an integer
+     */
+    public void set(Properties properties) throws IllegalArgumentException {
+        for (String name: properties.stringPropertyNames()) {
+            set(name, properties.getProperty(name));
+        }
+    }
+
+    /**
+     * Adds a setting.
+     * @param name for instance "workers"
+     * @param value integer
+     * @throws IllegalArgumentException if the setting is unknown or not an integer
+     */
+    public void set(String name, String value) throws IllegalArgumentException {
+        if (!settings.contains(name)) {
+            throw new IllegalArgumentException("Unknown server setting: " + name);
+        }
+        try {
+            Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Server setting " + name + " must be an integer: " + value);
+        }
+        this.values.setProperty(name, value.trim());
+    }
+
+    private boolean has(String name) {
+        return this.values.containsKey(name);
+    }
+
+    private int get(String name) {
+        return Integer.parseInt(this.values.getProperty(name));
+    }
+
+    /**
+     * @param endpoint "searsia" or "opensearch"
+     * @return minimum size of a response to be compressed, or -1 for no compression
+     */
+    public int getCompressionMinSize(String endpoint) {
+        String name = "compression." + endpoint;
+        return has(name) ? get(name) : defaultCOMPRESSIONMINSIZE;
+    }
+
+    /**
+     * Applies the settings to a server that is not started yet. With virtual
+     * threads, each request gets its own thread, so the worker settings
+     * have no effect.
+     * @param server
+     * @param virtual true if the server uses virtual threads
+     */
+    public void apply(HttpServer server, boolean virtual) {
+        this.server = server;
+        this.virtual = virtual;
+        for (NetworkListener listener: server.getListeners()) {
+            TCPNIOTransport transport = listener.getTransport();
+            if (!virtual) {
+                ThreadPoolConfig config = transport.getWorkerThreadPoolConfig().copy();
+                if (has("workers")) {
+                    config.setCorePoolSize(get("workers")).setMaxPoolSize(get("workers"));
+                }
+                if (has("workerqueue")) {
+                    config.setQueueLimit(get("workerqueue"));
+                }
+                config.getInitialMonitoringConfig().addProbes(this.probe);
+                transport.setWorkerThreadPoolConfig(config);
+            }
+            if (has("selectors"))          transport.setSelectorRunnersCount(get("selectors"));
+            if (has("backlog"))            transport.setServerConnectionBackLog(get("backlog"));
+            if (has("idletimeout"))        transport.setReadTimeout(get("idletimeout"), TimeUnit.SECONDS);
+            if (has("idletimeout"))        transport.setWriteTimeout(get("idletimeout"), TimeUnit.SECONDS);
+            if (has("keepalive.requests")) listener.getKeepAlive().setMaxRequestsCount(get("keepalive.requests"));
+            if (has("keepalive.idle"))     listener.getKeepAlive().setIdleTimeoutInSeconds(get("keepalive.idle"));
+            if (has("maxheadersize"))      listener.setMaxHttpHeaderSize(get("maxheadersize"));
+            if (has("maxheaders"))         listener.setMaxRequestHeaders(get("maxheaders"));
+            if (has("maxrequestsize"))     listener.setMaxFormPostSize(get("maxrequestsize"));
+            if (has("maxrequestsize"))     listener.setMaxBufferedPostSize(get("maxrequestsize"));
+        }
+    }
+
+    /**
+     * @return settings in effect, and the current use of the worker threads
+     */
+    public JSONObject toJsonHealth() {
+        JSONObject json = new JSONObject();
+        if (this.server == null) {
+            return json;
+        }
+        for (NetworkListener listener: this.server.getListeners()) {
+            TCPNIOTransport transport = listener.getTransport();
+            if (this.virtual) {
+                json.put("workers", "virtual");
+            } else {
+                ThreadPoolConfig config = transport.getWorkerThreadPoolConfig();
+                json.put("workers", config.getMaxPoolSize());
+                json.put("workerqueue", config.getQueueLimit());
+                json.put("busy", this.busy.get());
+                json.put("peakbusy", this.peakBusy.get());
+                json.put("queued", this.queued.get());
+                json.put("completed", this.completed.sum());
+                json.put("rejected", this.rejected.sum());
+            }
+            json.put("selectors", transport.getSelectorRunnersCount());
+            json.put("backlog", transport.getServerConnectionBackLog());
+            json.put("idletimeout", transport.getReadTimeout(TimeUnit.SECONDS));
+            json.put("keepaliverequests", listener.getKeepAlive().getMaxRequestsCount());
+            json.put("keepaliveidle", listener.getKeepAlive().getIdleTimeoutInSeconds());
+            json.put("maxheadersize", listener.getMaxHttpHeaderSize());
+            json.put("maxheaders", listener.getMaxRequestHeaders());
+            json.put("maxrequestsize", listener.getMaxFormPostSize());
+            for (String endpoint: compressedEndpoints) {
+                json.put("compression" + endpoint, getCompressionMinSize(endpoint));
+            }
+            break; // Searsia has one listener
+        }
+        return json;
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016-2017 Searsia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.searsia.web;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical calls that are in flight at the same time: the
+ * first caller starts the call, and concurrent callers with the same key
+ * share its result. Once the call is done, the next caller starts a new
+ * call.
+ *
+ * @author Djoerd Hiemstra
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * @param key identifies the call
+     * @param call starts the call, unless an identical call is in flight
+     * @return future result, shared by all callers with this key
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> flight = this.flights.putIfAbsent(key, mine);
+        if (flight != null) {
+            return flight.copy(); // so, one caller cannot cancel the call of others
+        }
+        try {
+            call.get().whenComplete((value, e) -> {
+                this.flights.remove(key, mine);
+                if (e != null) {
+                    mine.completeExceptionally(unwrap(e));
+                } else {
+                    mine.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            this.flights.remove(key, mine);
+            mine.completeExceptionally(e);
+        }
+        return mine.copy();
+    }
+
+    /**
+     * @return number of calls in flight
+     */
+    public int size() {
+        return this.flights.size();
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return e.getCause();
+        }
+        return e;
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.searsia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.searsia.engine.Resource;
+import org.searsia.engine.SearchException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class EngineTesterTest {
+
+	private static HttpServer server;
+	private static String base;
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static String definition(String rid) {
+		return "{\"resource\":{\"id\":\"" + rid + "\", \"name\":\"Engine " + rid + "\", \"mimetype\":\"application/json\", " +
+			"\"apitemplate\":\"" + base + "/engine/" + rid + "?q={q}\", \"itempath\":\"//hits\", \"testquery\":\"test\", " +
+			"\"extractors\":{\"title\":\"./title\"}}}";
+	}
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		Logger.getLogger("").setLevel(Level.OFF);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/searsia/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			String query = exchange.getRequestURI().getQuery();
+			if (!path.endsWith("/mother")) {
+				respond(exchange, 200, definition(path.substring(path.lastIndexOf('/') + 1)));
+			} else if (query != null && query.contains("page=1")) {
+				respond(exchange, 200, "{\"hits\":[{\"rid\":\"ok\",\"title\":\"Ok\"},{\"rid\":\"down\",\"title\":\"Down\"},{\"rid\":\"ok\"}]}");
+			} else {
+				respond(exchange, 200, "{\"hits\":[]}");
+			}
+		});
+		server.createContext("/engine/", exchange -> {
+			if (exchange.getRequestURI().getPath().endsWith("/down")) {
+				respond(exchange, 500, "{}");
+			} else {
+				JSONArray hits = new JSONArray();
+				for (int i = 0; i < 10; i += 1) {
+					hits.put(new JSONObject().put("title", "Hit " + i));
+				}
+				respond(exchange, 200, new JSONObject().put("hits", hits).toString());
+			}
+		});
+		server.setExecutor(Executors.newFixedThreadPool(4));
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testAll() throws XPathExpressionException, SearchException {
+		Resource mother = new Resource(new JSONObject("{\"id\":\"mother\", \"mimetype\":\"" + SearchResult.SEARSIA_MIME_TYPE +
+			"\", \"apitemplate\":\"" + base + "/searsia/mother?q={q}&page={startPage?}\", \"testquery\":\"test\"}"));
+		SearchResult result = mother.search("test", null, 1);
+		JSONObject report = new EngineTester(mother, 2, true).testAll(result);
+		Assert.assertEquals(2, report.getInt("engines"));
+		Assert.assertEquals(1, report.getInt("failed"));
+		JSONObject ok = report.getJSONArray("results").getJSONObject(0);
+		Assert.assertEquals("ok", ok.getString("id"));
+		Assert.assertTrue(ok.getBoolean("ok"));
+		Assert.assertEquals(10, ok.getInt("hits"));
+		Assert.assertTrue(ok.has("fetch") && ok.has("parse") && ok.has("extract"));
+		Assert.assertTrue(ok.getLong("bytes") > 0);
+		JSONObject down = report.getJSONArray("results").getJSONObject(1);
+		Assert.assertFalse(down.getBoolean("ok"));
+		Assert.assertTrue(down.has("error"));
+	}
+
+}
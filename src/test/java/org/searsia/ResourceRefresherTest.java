@@ -0,0 +1,99 @@
+package org.searsia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.searsia.engine.Resource;
+import org.searsia.index.ResourceIndex;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class ResourceRefresherTest {
+
+	private static HttpServer server;
+	private static Resource mother;
+	private static AtomicInteger concurrent = new AtomicInteger(0);
+	private static AtomicInteger maxConcurrent = new AtomicInteger(0);
+	private static AtomicInteger fetched = new AtomicInteger(0);
+
+	@BeforeClass
+	public static void setUp() throws IOException, XPathExpressionException {
+		Logger.getLogger("").setLevel(Level.WARNING);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/searsia/", exchange -> {
+			int now = concurrent.incrementAndGet();
+			maxConcurrent.accumulateAndGet(now, Math::max);
+			fetched.incrementAndGet();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) { }
+			String path = exchange.getRequestURI().getPath();
+			String rid = path.substring(path.lastIndexOf('/') + 1);
+			byte[] body = ("{\"resource\":{\"id\":\"" + rid + "\", \"apitemplate\":\"http://example.org/" + rid + "?q={q}\"}}").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", SearchResult.SEARSIA_MIME_ENCODING);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+			concurrent.decrementAndGet();
+		});
+		server.setExecutor(Executors.newFixedThreadPool(10));
+		server.start();
+		String base = "http://127.0.0.1:" + server.getAddress().getPort();
+		mother = new Resource(new JSONObject("{\"id\":\"mother\", \"mimetype\":\"" +
+			SearchResult.SEARSIA_MIME_TYPE + "\", \"apitemplate\":\"" + base + "/searsia/mother?q={q?}\"}"));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		server.stop(0);
+	}
+
+	private static String newPath() throws IOException {
+		return Files.createTempDirectory(Paths.get("target"), "index-refresh").toString(); // fresh index for each test
+	}
+
+	@Test
+	public void testRefreshParallel() throws IOException {
+		ResourceIndex engines = new ResourceIndex(newPath(), "refresh");
+		engines.putMother(mother);
+		ResourceRefresher refresher = new ResourceRefresher(mother, engines, 4, 100);
+		fetched.set(0);
+		int count = refresher.refresh(Arrays.asList("r1", "r2", "r3", "r4", "r1"));
+		Assert.assertEquals(4, count);
+		Assert.assertEquals(4, fetched.get());
+		Assert.assertTrue("Fetched in parallel", maxConcurrent.get() > 1);
+		Assert.assertEquals("http://example.org/r3?q={q}", engines.get("r3").getAPITemplate());
+		Assert.assertEquals(0, refresher.refresh(Arrays.asList("r1", "r2"))); // not stale
+		refresher.shutdown();
+	}
+
+	@Test
+	public void testRefreshRateLimit() throws IOException {
+		ResourceIndex engines = new ResourceIndex(newPath(), "refresh");
+		engines.putMother(mother);
+		ResourceRefresher refresher = new ResourceRefresher(mother, engines, 2, 3);
+		int count = refresher.refresh(Arrays.asList("r1", "r2", "r3", "r4"));
+		Assert.assertTrue("Some fetched, not all", count >= 2 && count < 4);
+		Assert.assertNotNull(engines.get("r2"));
+		Assert.assertNull(engines.get("r4"));
+		refresher.shutdown();
+	}
+
+}
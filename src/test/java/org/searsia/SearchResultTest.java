@@ -1,5 +1,10 @@
 package org.searsia;
 
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 import org.searsia.Hit;
@@ -16,6 +21,28 @@ public class SearchResultTest {
 		Assert.assertEquals("{\"hits\":[{\"title\":\"boo\"}]}", sr.toJson().toString());
 	}
 
+	@Test
+	public void testWriteHits() throws IOException {
+		SearchResult sr = new SearchResult();
+		Hit h = new Hit("The <b>ultimate</b> \"test\"", "Oh\nyeah", "http://searsia.org", null, null);
+		h.put("rid", "wiki");
+		h.put("query", "test");
+		h.put("score", 0.5f);
+		sr.addHit(h);
+		sr.addHit(new Hit());
+		for (boolean censor: new boolean[] { false, true }) {
+			StringWriter out = new StringWriter();
+			sr.writeHits(out, censor);
+			JSONArray written = new JSONArray(out.toString());
+			Assert.assertTrue(written.similar(sr.toJson(censor).getJSONArray("hits")));
+		}
+		StringWriter out = new StringWriter();
+		sr.writeHits(out, true);
+		JSONObject hit = new JSONArray(out.toString()).getJSONObject(0);
+		Assert.assertEquals("The ultimate \"test\"", hit.getString("title"));
+		Assert.assertFalse(hit.has("rid") || hit.has("query") || hit.has("favicon"));
+	}
+
 	@Test
 	public void testEmpty() {
 		SearchResult sr = new SearchResult();
@@ -67,4 +94,19 @@ public class SearchResultTest {
         Assert.assertTrue(h6.getScore() > 0.0f);
 	}
 
+	@Test
+	public void testFuse() {
+		SearchResult sr1 = new SearchResult();
+		sr1.addHit(new Hit("One", null, "http://one.org", null, null));
+		sr1.addHit(new Hit("Both", null, "http://both.org", null, null));
+		SearchResult sr2 = new SearchResult();
+		sr2.addHit(new Hit("Two", null, "http://two.org", null, null));
+		sr2.addHit(new Hit("Both again", null, "http://both.org", null, null));
+		SearchResult fused = SearchResult.fuse(java.util.Arrays.asList(sr1, sr2), 60);
+		Assert.assertEquals("Same url merged", 3, fused.getHits().size());
+		Assert.assertEquals("Found twice is best", "http://both.org", fused.getHits().get(0).getUrl());
+		Assert.assertEquals(2.0f / 62, fused.getHits().get(0).getScore(), 0.0001f);
+		Assert.assertEquals(1.0f / 61, fused.getHits().get(1).getScore(), 0.0001f);
+	}
+
 }
@@ -0,0 +1,185 @@
+package org.searsia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.searsia.engine.PooledUpstreamClient;
+import org.searsia.engine.Resource;
+import org.searsia.index.ResourceIndex;
+import org.searsia.index.SearchResultIndex;
+import org.searsia.web.SearsiaApplication;
+
+/**
+ * Compares the platform thread mode with the virtual thread mode ('-v'),
+ * against an upstream engine that takes a while to answer. Not a unit test
+ * (it is not run by 'mvn test'). Run it after 'mvn test-compile' with:
+ *
+ *   java -cp target/classes:target/test-classes:DEPENDENCIES org.searsia.ThreadModeBenchmark [queries] [concurrency] [delay]
+ *
+ * where DEPENDENCIES is the output of 'mvn dependency:build-classpath'.
+ * Virtual threads need Java 21; on older Java, only platform threads are measured.
+ *
+ * Two workloads: 'blocking' runs blocking Resource.search() calls, each on
+ * a worker thread (a fixed pool like Grizzly's, or a virtual thread per
+ * call); 'server' sends queries to a running Searsia server.
+ */
+public class ThreadModeBenchmark {
+
+	private static final int POOLSIZE = Math.max(2, Runtime.getRuntime().availableProcessors()) * 2; // like Grizzly's workers
+
+	private static com.sun.net.httpserver.HttpServer upstream;
+	private static String upstreamBase;
+
+	private static void startUpstream(int delay) throws IOException {
+		upstream = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+		upstream.createContext("/engine", exchange -> {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) { }
+			JSONArray hits = new JSONArray();
+			for (int i = 0; i < 10; i += 1) {
+				hits.put(new JSONObject().put("title", "Hit " + i));
+			}
+			byte[] body = new JSONObject().put("hits", hits).toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		upstream.setExecutor(Executors.newCachedThreadPool());
+		upstream.start();
+		upstreamBase = "http://127.0.0.1:" + upstream.getAddress().getPort();
+	}
+
+	private static Resource engine(String id) throws Exception {
+		return new Resource(new JSONObject("{\"id\":\"" + id + "\", \"mimetype\":\"application/json\", " +
+			"\"apitemplate\":\"" + upstreamBase + "/engine?q={q}\", \"itempath\":\"//hits\", " +
+			"\"maxqueriesperday\":1000000000, \"extractors\":{\"title\":\"./title\"}}"));
+	}
+
+	private static void setUpstreamClient(boolean virtual, int concurrency) {
+		Resource.setUpstreamClient(new PooledUpstreamClient(concurrency, virtual ? Threads.newExecutor("bench-fetch", true) : null));
+	}
+
+	private static void report(String workload, boolean virtual, long[] latencies, int errors, long nanos) {
+		Arrays.sort(latencies);
+		System.out.printf("%-8s %-8s %8.0f q/s  p50 %6.1f ms  p99 %6.1f ms  errors %d%n", workload,
+			virtual ? "virtual" : "platform", latencies.length / (nanos / 1e9),
+			latencies[latencies.length / 2] / 1e6, latencies[latencies.length * 99 / 100] / 1e6, errors);
+	}
+
+	private static void blocking(boolean virtual, int queries, int concurrency) throws Exception {
+		setUpstreamClient(virtual, concurrency);
+		Resource engine = engine("blocking-" + virtual);
+		ExecutorService workers = virtual ? Threads.newExecutor("bench-worker", true) : Executors.newFixedThreadPool(POOLSIZE);
+		Semaphore inFlight = new Semaphore(concurrency);
+		AtomicInteger errors = new AtomicInteger(0);
+		long[] latencies = new long[queries];
+		List<Future<?>> futures = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int i = 0; i < queries; i += 1) {
+			final int nr = i;
+			inFlight.acquire();
+			long queued = System.nanoTime();
+			futures.add(workers.submit(() -> {
+				try {
+					engine.search("query" + nr);
+				} catch (Exception e) {
+					errors.incrementAndGet();
+				} finally {
+					latencies[nr] = System.nanoTime() - queued;
+					inFlight.release();
+				}
+			}));
+		}
+		for (Future<?> future: futures) {
+			future.get();
+		}
+		report("blocking", virtual, latencies, errors.get(), System.nanoTime() - start);
+		workers.shutdown();
+	}
+
+	private static void server(boolean virtual, int queries, int concurrency) throws Exception {
+		setUpstreamClient(virtual, concurrency);
+		String path = Files.createTempDirectory(Paths.get("target"), "index-bench").toString();
+		ResourceIndex engines = new ResourceIndex(path, "bench");
+		SearchResultIndex index = new SearchResultIndex(path, "bench", 100);
+		engines.putMother(engine("mother"));
+		engines.putMyself(new Resource(new JSONObject("{\"id\":\"me\"}")));
+		engines.put(engine("slow"));
+		SearsiaOptions options = new SearsiaOptions(virtual ?
+			new String[] {"-m", upstreamBase + "/mother.json", "-v"} : new String[] {"-m", upstreamBase + "/mother.json"});
+		String uri = "http://127.0.0.1:16843/";
+		HttpServer server = Main.startServer(uri, new SearsiaApplication(index, engines, options), options);
+		HttpClient client = HttpClient.newBuilder().executor(Executors.newCachedThreadPool()).build();
+		Semaphore inFlight = new Semaphore(concurrency);
+		AtomicInteger errors = new AtomicInteger(0);
+		long[] latencies = new long[queries];
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int i = 0; i < queries; i += 1) {
+			final int nr = i;
+			inFlight.acquire();
+			long sent = System.nanoTime();
+			HttpRequest request = HttpRequest.newBuilder(URI.create(uri + "searsia/slow.json?q=query" + nr)).build();
+			futures.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, e) -> {
+				if (e != null || response.statusCode() != 200) {
+					errors.incrementAndGet();
+				}
+				latencies[nr] = System.nanoTime() - sent;
+				inFlight.release();
+			}));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((v, e) -> v).get();
+		report("server", virtual, latencies, errors.get(), System.nanoTime() - start);
+		server.shutdownNow();
+		index.close();
+		engines.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int queries     = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int delay       = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		Logger.getLogger("").setLevel(Level.OFF);
+		startUpstream(delay);
+		System.out.println(queries + " queries, " + concurrency + " at a time, upstream delay " + delay + " ms, pool size " + POOLSIZE);
+		List<Boolean> modes = Threads.isVirtualAvailable() ? Arrays.asList(false, true) : Arrays.asList(false);
+		for (boolean virtual: modes) {
+			blocking(virtual, queries / 5, concurrency); // warm up
+			blocking(virtual, queries, concurrency);
+		}
+		for (boolean virtual: modes) {
+			server(virtual, queries, concurrency);
+		}
+		if (!Threads.isVirtualAvailable()) {
+			System.out.println("No virtual threads: needs Java 21");
+		}
+		upstream.stop(0);
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,73 @@
+package org.searsia.engine;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void testOpens() {
+		CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 60000);
+		breaker.failure();
+		breaker.failure();
+		breaker.failure();
+		Assert.assertTrue(breaker.allowRequest()); // not enough requests yet
+		breaker.success();
+		breaker.success();
+		breaker.success();
+		breaker.success();
+		Assert.assertTrue(breaker.isClosed());    // 3 out of 7 failed
+		breaker.failure();
+		Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void testHalfOpen() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(4, 1, 0.5, 20);
+		breaker.failure();
+		Assert.assertFalse(breaker.allowRequest());
+		Thread.sleep(30);
+		Assert.assertTrue(breaker.allowRequest());  // the probe
+		Assert.assertFalse(breaker.allowRequest());
+		Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+		breaker.failure();
+		Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+		Thread.sleep(30);
+		Assert.assertTrue(breaker.allowRequest());
+		breaker.success();
+		Assert.assertTrue(breaker.isClosed());
+		Assert.assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void testProbeNotSent() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(4, 1, 0.5, 20);
+		breaker.failure();
+		Thread.sleep(30);
+		Assert.assertTrue(breaker.allowRequest());  // the probe
+		breaker.notSent();
+		Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+		Assert.assertTrue(breaker.allowRequest());  // a new probe, right away
+		Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+		breaker.success();
+		breaker.notSent();  // closed: nothing to give back
+		Assert.assertTrue(breaker.isClosed());
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.75, 60000);
+		breaker.failure();
+		breaker.failure();
+		breaker.success();
+		breaker.success();
+		breaker.success();
+		breaker.failure();
+		breaker.failure();  // the first two failures left the window
+		Assert.assertTrue(breaker.isClosed());
+		breaker.failure();
+		Assert.assertFalse(breaker.isClosed());
+	}
+
+}
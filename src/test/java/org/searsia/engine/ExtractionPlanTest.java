@@ -0,0 +1,78 @@
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+import org.searsia.HTMLStripper;
+import org.searsia.Hit;
+
+public class ExtractionPlanTest {
+
+	private static final String html = "<html><body><div class=\"r\" id=\"r1\"><h3><a href=\"/one\">One <b>1</b></a></h3>" +
+	    "<p>Snip <span>pet</span> one<!-- c -->more</p><div class=\"n\"><div>inner</div></div></div>" +
+	    "<div class=\"r\" id=\"r2\"><h3><a href=\"two\" title=\"t\">Two</a></h3><img src=\"i.png\"></div></body></html>";
+
+	private static final String[][] fields = {
+	    { "title", ".//h3" }, { "url", ".//a/@href" }, { "description", "./p/text()" }, { "all", "." },
+	    { "attr", "@*" }, { "deep", ".//@*" }, { "div", ".//div" }, { "any", "./*/*" }, { "text", ".//text()" },
+	    { "first", "./h3[1]" }, { "up", "../@id" }, { "sib", "h3/following-sibling::*" }, { "none", "./table" } };
+
+	private static List<TextExtractor> extractors() throws XPathExpressionException {
+		List<TextExtractor> extractors = new ArrayList<>();
+		for (String[] field: fields) {
+			extractors.add(new TextExtractor(field[0], field[1]));
+		}
+		return extractors;
+	}
+
+	@Test
+	public void testSameAsExtractors() throws XPathExpressionException {
+		Document document = Jsoup.parse(html, "http://example.org/");
+		List<TextExtractor> extractors = extractors();
+		ExtractionPlan plan = new ExtractionPlan(extractors);
+		List<Object> items = PathExpression.compile("//div[@class='r']").select(JsoupModel.instance, document);
+		Assert.assertEquals(2, items.size());
+		for (Object item: items) {
+			Hit expected = new Hit();
+			for (TextExtractor extractor: extractors) {
+				extractor.extract(JsoupModel.instance, item, expected, "http://example.org/search");
+			}
+			Hit hit = plan.extract(JsoupModel.instance, item, "http://example.org/search");
+			Assert.assertEquals(expected.toJson().toString(), hit.toJson().toString());
+		}
+	}
+
+	@Test
+	public void testIsFor() throws XPathExpressionException {
+		List<TextExtractor> extractors = extractors();
+		ExtractionPlan plan = new ExtractionPlan(extractors);
+		Assert.assertTrue(plan.isFor(extractors()));
+		extractors.remove(0);
+		Assert.assertFalse(plan.isFor(extractors));
+	}
+
+	@Test
+	public void testFieldMatcher() {
+		Assert.assertNotNull(PathExpression.compile(".//a/@href").getFieldMatcher());
+		Assert.assertNotNull(PathExpression.compile("./p/text()").getFieldMatcher());
+		Assert.assertNull(PathExpression.compile("./h3[1]").getFieldMatcher());
+		Assert.assertNull(PathExpression.compile("../@id").getFieldMatcher());
+		Assert.assertNull(PathExpression.compile("//h3").getFieldMatcher());
+	}
+
+	@Test
+	public void testHTMLStripper() {
+		Assert.assertEquals("bold text", HTMLStripper.noHTML("<B>bold</b> <span class=\"x\">text</span>"));
+		Assert.assertEquals("a  b", HTMLStripper.noHTML("a &amp; <br/>b&#39;"));
+		Assert.assertEquals("a  b", HTMLStripper.noHTML("a > b"));
+		Assert.assertEquals("one   two", HTMLStripper.tagsToSpaces(" one <br> two�"));
+		Assert.assertEquals("plain", HTMLStripper.tagsToSpaces("plain"));
+	}
+
+}
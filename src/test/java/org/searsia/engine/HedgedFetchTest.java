@@ -0,0 +1,92 @@
+package org.searsia.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HedgedFetchTest {
+
+	private final List<CompletableFuture<String>> requests = new ArrayList<>();
+	private final AtomicInteger hedged = new AtomicInteger();
+	private final AtomicInteger won = new AtomicInteger();
+
+	private CompletableFuture<String> fetch(long delay, boolean mayHedge) {
+		return HedgedFetch.fetch(() -> {
+			CompletableFuture<String> request = new CompletableFuture<>();
+			synchronized (this.requests) {
+				this.requests.add(request);
+			}
+			return request;
+		}, delay, () -> mayHedge, hedged::incrementAndGet, won::incrementAndGet);
+	}
+
+	private CompletableFuture<String> request(int i) throws InterruptedException {
+		for (int wait = 0; wait < 100; wait += 1) {
+			synchronized (this.requests) {
+				if (this.requests.size() > i) return this.requests.get(i);
+			}
+			Thread.sleep(10);
+		}
+		throw new AssertionError("Request " + i + " not sent");
+	}
+
+	@Test
+	public void testFastFirst() throws Exception {
+		CompletableFuture<String> result = fetch(100, true);
+		request(0).complete("first");
+		Assert.assertEquals("first", result.get(1, TimeUnit.SECONDS));
+		Thread.sleep(150);
+		Assert.assertEquals(1, this.requests.size());
+		Assert.assertEquals(0, hedged.get());
+	}
+
+	@Test
+	public void testHedgeWins() throws Exception {
+		CompletableFuture<String> result = fetch(10, true);
+		request(1).complete("second");
+		Assert.assertEquals("second", result.get(1, TimeUnit.SECONDS));
+		Assert.assertTrue(request(0).isCancelled());
+		Assert.assertEquals(1, hedged.get());
+		Assert.assertEquals(1, won.get());
+	}
+
+	@Test
+	public void testNotAllowed() throws Exception {
+		CompletableFuture<String> result = fetch(10, false);
+		Thread.sleep(50);
+		request(0).complete("first");
+		Assert.assertEquals("first", result.get(1, TimeUnit.SECONDS));
+		Assert.assertEquals(1, this.requests.size());
+	}
+
+	@Test
+	public void testFailsIfAllFail() throws Exception {
+		CompletableFuture<String> result = fetch(10, true);
+		request(1).completeExceptionally(new IOException("second"));
+		Assert.assertFalse(result.isDone());
+		request(0).completeExceptionally(new IOException("first"));
+		try {
+			result.get(1, TimeUnit.SECONDS);
+			Assert.fail("Both failed");
+		} catch (ExecutionException e) {
+			Assert.assertEquals("first", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		CompletableFuture<String> result = fetch(10, true);
+		request(1);
+		result.cancel(true);
+		Assert.assertTrue(request(0).isCancelled());
+		Assert.assertTrue(request(1).isCancelled());
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.searsia.engine;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+public class JSONStreamReaderTest {
+
+	private static final String json = "{\"hits\": [{\"title\": \"One\", \"url\": \"/one\", \"n\": 1, \"f\": 1.5, \"ok\": true, \"z\": null}, " +
+	    "{\"title\": \"Two\", \"tags\": [\"a\", \"b\", [1, 2]], \"a b\": \"c\", \"o\": {\"k\": \"v\", \"l\": [{\"x\": 1}, {\"x\": 2}]}}], " +
+	    "count: 2, 'lenient': [,'x',]}";
+
+	private static List<String> dom(String path) throws XPathExpressionException {
+		Document document = DOMBuilder.json2DOM(new JSONObject(json));
+		NodeList nodes = (NodeList) new XPathPool(path).evaluate(document, XPathConstants.NODESET);
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < nodes.getLength(); i += 1) {
+			result.add(nodes.item(i).getTextContent());
+		}
+		return result;
+	}
+
+	private static List<String> stream(String path) throws IOException {
+		ItemCollector collector = new ItemCollector();
+		JSONStreamReader.read(new StringReader(json), collector, false);
+		List<String> result = new ArrayList<>();
+		for (TreeNode node: PathExpression.compile(path).select(TreeNode.model, collector.getDocument())) {
+			result.add(PathExpression.stringValue(TreeNode.model, node));
+		}
+		return result;
+	}
+
+	private static List<String> items(String path, String text, int max) throws IOException {
+		List<String> result = new ArrayList<>();
+		ItemCollector collector = new ItemCollector(PathExpression.compile(path).getItemMatcher(), max,
+		    item -> result.add(PathExpression.stringValue(TreeNode.model, item)));
+		JSONStreamReader.read(new StringReader(text), collector, false);
+		return result;
+	}
+
+	@Test
+	public void testSameAsDOM() throws XPathExpressionException, IOException {
+		String[] paths = { "/root/hits", "//hits/*", "//title", "//hits[title='Two']/o/l", "//f", "//z", "//ok",
+		    "//tags/list", "//a_b", "//lenient", "//hits/node()[3]", "//@*", "/root/count" };
+		for (String path: paths) {
+			Assert.assertEquals(path, dom(path), stream(path));
+		}
+	}
+
+	@Test
+	public void testItems() throws XPathExpressionException, IOException {
+		Assert.assertEquals(dom("//hits"), items("//hits", json, 30));
+		Assert.assertEquals(dom("//hits[o/k='v']"), items("//hits[o/k='v']", json, 30));
+		Assert.assertEquals(dom("//x"), items("/root/*/o/l/x", json, 30));
+		Assert.assertEquals(1, items("//hits", json, 1).size());
+	}
+
+	@Test
+	public void testStopsEarly() throws IOException {
+		String text = "[{\"title\": \"a\"}, {\"title\": \"b\"}, {\"title\": \"c\"}, this is not json";
+		Assert.assertEquals(2, items("//list", text, 2).size());
+	}
+
+	@Test(expected = JSONException.class)
+	public void testDuplicateKey() throws IOException {
+		items("//hits", "{\"hits\": [{\"title\": \"a\", \"title\": \"b\"}]}", 30);
+	}
+
+	@Test
+	public void testJavascript() {
+		List<String> result = new ArrayList<>();
+		ItemCollector collector = new ItemCollector(PathExpression.compile("//list/title").getItemMatcher(), 30,
+		    item -> result.add(PathExpression.stringValue(TreeNode.model, item)));
+		JSONStreamReader.readJavascript("cb({\"title\": \"a\"}); cb({wrong}); cb({\"title\": \"b\"});", collector);
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals("b", result.get(1));
+	}
+
+	@Test
+	public void testNotStreamed() {
+		Assert.assertNull(PathExpression.compile("//hits[1]").getItemMatcher());
+		Assert.assertNull(PathExpression.compile("//hits[../count]").getItemMatcher());
+		Assert.assertNull(PathExpression.compile("//hits/text()").getItemMatcher());
+		Assert.assertTrue(PathExpression.compile("./title").isDownward());
+		Assert.assertFalse(PathExpression.compile("../title").isDownward());
+		Assert.assertFalse(PathExpression.compile("//title").isDownward());
+	}
+
+}
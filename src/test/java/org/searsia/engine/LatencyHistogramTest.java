@@ -0,0 +1,64 @@
+package org.searsia.engine;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		for (long millis = 0; millis < 300000; millis += 1) {
+			int bucket = LatencyHistogram.bucket(millis);
+			Assert.assertTrue(millis <= LatencyHistogram.upperBound(bucket) || millis > 200000);
+			if (bucket > 0) {
+				Assert.assertTrue(millis > LatencyHistogram.upperBound(bucket - 1));
+			}
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram(3600000);
+		Assert.assertEquals(0, histogram.getPercentile(0.99));
+		for (int i = 0; i < 98; i += 1) {
+			histogram.record(80);
+		}
+		histogram.record(1000);
+		histogram.record(4000);
+		Assert.assertEquals(100, histogram.getCount());
+		long p50 = histogram.getPercentile(0.5);
+		Assert.assertTrue(p50 >= 80 && p50 < 100);
+		long p99 = histogram.getPercentile(0.99);
+		Assert.assertTrue(p99 >= 1000 && p99 < 1200);
+		JSONObject json = histogram.toJson();
+		Assert.assertEquals(100, json.getLong("count"));
+		Assert.assertEquals(3, json.getJSONObject("buckets").length());
+	}
+
+	@Test
+	public void testRolling() throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram(200);
+		histogram.record(5000);
+		Thread.sleep(250);
+		histogram.record(10);
+		Assert.assertEquals(2, histogram.getCount()); // previous period still counts
+		Thread.sleep(250);
+		histogram.record(10);
+		Assert.assertEquals(2, histogram.getCount());
+		Assert.assertTrue(histogram.getPercentile(1.0) < 100);
+	}
+
+	@Test
+	public void testIdle() throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram(20);
+		histogram.record(5000);
+		histogram.record(5000);
+		Thread.sleep(50); // two periods without responses
+		Assert.assertEquals(0, histogram.getCount());
+		histogram.record(10);
+		Assert.assertEquals(1, histogram.getCount());
+		Assert.assertTrue(histogram.getPercentile(1.0) < 100);
+	}
+
+}
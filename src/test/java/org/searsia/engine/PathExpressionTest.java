@@ -0,0 +1,63 @@
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.jsoup.Jsoup;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+public class PathExpressionTest {
+
+	private static final String html = "<html><head><title>Test</title><script>var x = '<div>';</script></head>" +
+	    "<body> text <!-- comment --> <div class='post' id='p1'><h3><a href='/one'>One <b>bold</b></a></h3> after" +
+	    "<p>First\n  para</p><p>Second</p></div><div class='post'><h3>Two</h3><p>Third</p></div>" +
+	    "<div class='other' foo:bar='x'><ul><li>1</li><li>2</li></ul></div></body></html>";
+
+	private static List<String> dom(String path) throws XPathExpressionException {
+		Document document = DOMBuilder.jsoup2DOM(Jsoup.parse(html));
+		NodeList nodes = (NodeList) new XPathPool(path).evaluate(document, XPathConstants.NODESET);
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < nodes.getLength(); i += 1) {
+			result.add(nodes.item(i).getTextContent());
+		}
+		return result;
+	}
+
+	private static List<String> jsoup(String path) {
+		List<String> result = new ArrayList<>();
+		for (Object node: PathExpression.compile(path).select(JsoupModel.instance, (Object) Jsoup.parse(html))) {
+			result.add(PathExpression.stringValue(JsoupModel.instance, node));
+		}
+		return result;
+	}
+
+	@Test
+	public void testSameAsDOM() throws XPathExpressionException {
+		String[] paths = { "//div[@class='post']", "//div[./h3]/h3/a/@href", "//h3/following-sibling::text()", 
+		    "//body/text()", "//p/text()", "//li[1]", "//ul/li[2]", "//div[contains(@class, 'oth')]//li", 
+		    "//div[not(@id)]", "//div[h3='Two' or @id]", "//@*", "//div/@foo_bar", "/html/head/title", "//script",
+		    "//p[normalize-space()='First para']", "//*[starts-with(., 'Thi')]", "//a/.." };
+		for (String path: paths) {
+			Assert.assertEquals(path, dom(path), jsoup(path));
+		}
+	}
+
+	@Test
+	public void testNotSupported() {
+		Assert.assertNull(PathExpression.compile("count(//div)"));
+		Assert.assertNull(PathExpression.compile("(//div)[1]"));
+		Assert.assertNull(PathExpression.compile("//div[last()]"));
+		Assert.assertNull(PathExpression.compile("//div | //p"));
+		Assert.assertNull(PathExpression.compile("//ns:div"));
+		Assert.assertNull(PathExpression.compile("//div[@n > 1]"));
+		Assert.assertNull(PathExpression.compile("ancestor::div"));
+		Assert.assertNotNull(PathExpression.compile("./header/h2/a/@href"));
+	}
+
+}
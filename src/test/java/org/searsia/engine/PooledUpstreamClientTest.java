@@ -0,0 +1,224 @@
+package org.searsia.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledUpstreamClientTest {
+
+    private static HttpServer server;
+    private static String base;
+    private static AtomicInteger concurrent = new AtomicInteger(0);
+    private static AtomicInteger maxConcurrent = new AtomicInteger(0);
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", exchange -> {
+            int now = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) { }
+            concurrent.decrementAndGet(); // before the client can get the response
+            byte[] body = ("{\"method\":\"" + exchange.getRequestMethod() + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/gzip", exchange -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(("{\"encoding\":\"" + exchange.getRequestHeaders().getFirst("Accept-Encoding") + "\"}").getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, bytes.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                bytes.writeTo(out);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) { }
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/stall", exchange -> {
+            exchange.sendResponseHeaders(200, 1000);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("{\"half\":".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(3000);
+            } catch (IOException | InterruptedException e) { }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(10));
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    private static String read(UpstreamResponse response) {
+        return response.getBody().toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Waits for the slots to be released: this happens just after the futures complete
+     */
+    private static JSONObject awaitIdle(PooledUpstreamClient client) throws InterruptedException {
+        JSONObject health = client.toJsonHealth();
+        for (int i = 0; i < 200 && health.getInt("active") > 0; i += 1) {
+            Thread.sleep(10);
+            health = client.toJsonHealth();
+        }
+        return health;
+    }
+
+    @Test
+    public void testFetchPost() throws Exception {
+        PooledUpstreamClient client = new PooledUpstreamClient();
+        UpstreamRequest request = new UpstreamRequest(new URI(base + "/page"));
+        request.setPostString("q=test");
+        UpstreamResponse response = client.fetch(request).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("application/json", response.getHeader("content-type"));
+        Assert.assertEquals("POST", new JSONObject(read(response)).getString("method"));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        PooledUpstreamClient client = new PooledUpstreamClient();
+        UpstreamResponse response = client.fetch(new UpstreamRequest(new URI(base + "/gzip"))).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(ContentDecoder.acceptEncoding, new JSONObject(read(response)).getString("encoding"));
+        Assert.assertTrue(response.getWireBytes() != response.getBody().size());
+    }
+
+    @Test
+    public void testMaxBytes() throws Exception {
+        PooledUpstreamClient client = new PooledUpstreamClient();
+        UpstreamRequest request = new UpstreamRequest(new URI(base + "/page"));
+        request.setMaxBytes(5);
+        try {
+            client.fetch(request).get(10, TimeUnit.SECONDS);
+            Assert.fail("Page too large");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(0, awaitIdle(client).getInt("active"));
+    }
+
+    @Test
+    public void testPerHostLimit() throws Exception {
+        PooledUpstreamClient client = new PooledUpstreamClient(2, null);
+        while (concurrent.get() > 0) { // requests cancelled by other tests
+            Thread.sleep(10);
+        }
+        maxConcurrent.set(0);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i += 1) {
+            futures.add(client.fetch(new UpstreamRequest(new URI(base + "/page"))).thenApply(response -> {
+                done.countDown();
+                return read(response);
+            }));
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (CompletableFuture<String> future: futures) {
+            Assert.assertEquals("GET", new JSONObject(future.get()).getString("method"));
+        }
+        Assert.assertTrue("At most 2 connections", maxConcurrent.get() <= 2);
+        JSONObject health = awaitIdle(client);
+        Assert.assertEquals(8, health.getLong("requests"));
+        Assert.assertEquals(0, health.getInt("active"));
+        Assert.assertEquals(0, health.getInt("queued"));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        PooledUpstreamClient client = new PooledUpstreamClient(1, null);
+        CompletableFuture<UpstreamResponse> first = client.fetch(new UpstreamRequest(new URI(base + "/page")));
+        CompletableFuture<UpstreamResponse> queued = client.fetch(new UpstreamRequest(new URI(base + "/page")));
+        Assert.assertTrue(queued.cancel(true));
+        Assert.assertEquals(200, first.get(10, TimeUnit.SECONDS).getStatus());
+        JSONObject health = awaitIdle(client);
+        Assert.assertEquals(1, health.getLong("requests"));
+        Assert.assertEquals(0, health.getInt("active"));
+        CompletableFuture<UpstreamResponse> running = client.fetch(new UpstreamRequest(new URI(base + "/page")));
+        Assert.assertTrue(running.cancel(true));
+        Assert.assertEquals(200, client.fetch(new UpstreamRequest(new URI(base + "/page"))).get(10, TimeUnit.SECONDS).getStatus());
+        Assert.assertEquals(0, client.toJsonHealth().getLong("errors"));
+    }
+
+    @Test
+    public void testStallMidBody() throws Exception {
+        PooledUpstreamClient client = new PooledUpstreamClient(1, null);
+        UpstreamRequest request = new UpstreamRequest(new URI(base + "/stall"));
+        request.setTimeout(400);
+        long start = System.currentTimeMillis();
+        try {
+            client.fetch(request).get(10, TimeUnit.SECONDS);
+            Assert.fail("Stalled body");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof HttpTimeoutException);
+        }
+        Assert.assertTrue("Deadline of 400 ms", System.currentTimeMillis() - start < 2000);
+        Assert.assertEquals(200, client.fetch(new UpstreamRequest(new URI(base + "/page"))).get(2, TimeUnit.SECONDS).getStatus());
+        JSONObject health = awaitIdle(client);
+        Assert.assertEquals(1, health.getLong("errors"));
+        Assert.assertEquals(0, health.getInt("active"));
+    }
+
+    @Test
+    public void testExpiredInQueue() throws Exception {
+        PooledUpstreamClient client = new PooledUpstreamClient(1, null);
+        CompletableFuture<UpstreamResponse> slow = client.fetch(new UpstreamRequest(new URI(base + "/slow")));
+        List<CompletableFuture<UpstreamResponse>> queued = new ArrayList<>();
+        for (int i = 0; i < 5000; i += 1) {
+            UpstreamRequest request = new UpstreamRequest(new URI(base + "/page"));
+            request.setTimeout(200);
+            queued.add(client.fetch(request));
+        }
+        CompletableFuture.allOf(queued.toArray(new CompletableFuture<?>[0])).handle((v, e) -> v).get(10, TimeUnit.SECONDS);
+        Thread.sleep(100); // the last one leaves the queue just after it completes
+        Assert.assertFalse("Still waiting for the slow page", slow.isDone());
+        JSONObject health = client.toJsonHealth();
+        Assert.assertEquals(0, health.getInt("queued")); // expired requests left the queue
+        Assert.assertEquals(1, health.getLong("requests"));
+        Assert.assertEquals(200, slow.get(10, TimeUnit.SECONDS).getStatus());
+        Assert.assertEquals(200, client.fetch(new UpstreamRequest(new URI(base + "/page"))).get(2, TimeUnit.SECONDS).getStatus());
+        health = awaitIdle(client);
+        Assert.assertEquals(2, health.getLong("requests"));
+        Assert.assertEquals(0, health.getInt("active"));
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	private static final long day = 86400000;
+
+	private static void concurrently(int threads, Runnable task) throws InterruptedException {
+		List<Thread> list = new ArrayList<>();
+		for (int i = 0; i < threads; i += 1) {
+			list.add(new Thread(task));
+		}
+		for (Thread thread: list) {
+			thread.start();
+		}
+		for (Thread thread: list) {
+			thread.join();
+		}
+	}
+
+	@Test
+	public void testLimit() {
+		RateLimiter limiter = new RateLimiter(day, 3.5);
+		Assert.assertTrue(limiter.tryAcquire(1000));
+		Assert.assertTrue(limiter.tryAcquire(1000));
+		Assert.assertTrue(limiter.tryAcquire(1000));
+		Assert.assertFalse(limiter.tryAcquire(1000));
+		Assert.assertEquals(0, limiter.getAllowance(1000));
+		Assert.assertEquals(2, new RateLimiter(day, 500).getAllowance(2));
+	}
+
+	@Test
+	public void testNotOverrun() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(day, 1000.5);
+		AtomicInteger allowed = new AtomicInteger();
+		concurrently(8, () -> {
+			for (int i = 0; i < 1000; i += 1) {
+				if (limiter.tryAcquire(1000)) {
+					allowed.incrementAndGet();
+				}
+			}
+		});
+		Assert.assertEquals(1000, allowed.get());
+	}
+
+	@Test
+	public void testSetAllowance() {
+		RateLimiter limiter = new RateLimiter(day, 10);
+		limiter.setAllowance(new RateLimiter(day, 1.5));
+		Assert.assertTrue(limiter.tryAcquire(1000));
+		Assert.assertFalse(limiter.tryAcquire(1000));
+	}
+
+	@Test
+	public void testStatsNoLostUpdates() throws InterruptedException {
+		ResourceStats stats = new ResourceStats();
+		concurrently(8, () -> {
+			for (int i = 0; i < 10000; i += 1) {
+				stats.success();
+				stats.error("error");
+				stats.countIngest(10, 5, 1);
+			}
+		});
+		ResourceStats.Snapshot snapshot = stats.snapshot();
+		Assert.assertEquals(80000, snapshot.nrOfOk);
+		Assert.assertEquals(80000, snapshot.nrOfError);
+		Assert.assertEquals(800000, stats.getIngestJson().getLong("bytes"));
+		Assert.assertEquals("error", snapshot.lastMessage);
+	}
+
+}
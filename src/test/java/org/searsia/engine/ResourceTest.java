@@ -1,5 +1,10 @@
 package org.searsia.engine;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -16,6 +21,8 @@ import org.searsia.Hit;
 import org.searsia.SearchResult;
 import org.searsia.engine.Resource;
 
+import com.sun.net.httpserver.HttpServer;
+
 public class ResourceTest {
 
 	private static final String SECRET_API_KEY = "a7235cdsf43d3a2dfgeda";
@@ -240,6 +247,10 @@ public class ResourceTest {
 		Assert.assertEquals("testquery", se1.getTestQuery(), se2.getTestQuery());
 		Assert.assertEquals("prior", se1.getPrior(), se2.getPrior(), 0.0001d);
 		Assert.assertEquals("maxqueriesperday", se1.getRate(), se2.getRate());
+		Assert.assertEquals("maxbytes", se1.getMaxBytes(), se2.getMaxBytes());
+		Assert.assertEquals("mintimeout", 500, se2.getMinTimeout());
+		Assert.assertEquals("maxtimeout", 5000, se2.getMaxTimeout());
+		Assert.assertTrue("hedge", se2.isHedged());
 		Assert.assertEquals("extractors", se1.getExtractors().size(), se2.getExtractors().size());
 		Assert.assertEquals("headers", se1.getHeaders().size(), se2.getHeaders().size());
 		Assert.assertEquals("post", se1.getPostString(), se2.getPostString());
@@ -248,6 +259,15 @@ public class ResourceTest {
 		Assert.assertFalse("secret revealed", json.toString().contains(SECRET_API_KEY));
 	}
 	
+	@Test
+	public void testIngestHealth() throws XPathExpressionException, SearchException {
+        Resource se = new Resource("file:src/test/resources/index.json").updateFromAPI();
+		JSONObject ingest = se.toJsonHealth().getJSONObject("ingest");
+		Assert.assertEquals(1, ingest.getLong("pages"));
+		Assert.assertTrue(ingest.getLong("bytes") > 0);
+		Assert.assertEquals(0, ingest.getLong("toolarge"));
+	}
+
 	@Test
 	public void testJsonPrivateParameter() throws XPathExpressionException {
 	    JSONObject json = new JSONObject("{\"id\":\"test\", \"privateparameters\":{\"apikey\":\"secret\"}}");
@@ -292,4 +312,64 @@ public class ResourceTest {
         SearchResult result = se.randomSearch();
         Assert.assertTrue("Successful directaccess engine", result != null);
     }
+
+    @Test
+    public void testCircuitBreaker() throws XPathExpressionException {
+        JSONObject json = new JSONObject("{\"id\":\"down\", \"mimetype\":\"application/json\", " +
+            "\"apitemplate\":\"http://127.0.0.1:1/?q={searchTerms}\", \"itempath\":\"//hits\"}");
+        Resource se = new Resource(json);
+        for (int i = 0; i < 5; i += 1) {
+            try {
+                se.search("test");
+                Assert.fail("Engine is down");
+            } catch (SearchException e) { }
+        }
+        Assert.assertEquals("open", se.toJsonHealth().getString("circuit"));
+        Assert.assertEquals(5, se.getNrOfErrors());
+        try {
+            se.search("test");
+            Assert.fail("Circuit is open");
+        } catch (SearchException e) {
+            Assert.assertTrue(e.getMessage().contains("Circuit open"));
+        }
+        Assert.assertEquals(5, se.getNrOfErrors());
+    }
+
+    @Test
+    public void testSearchResourceNotModified() throws IOException, XPathExpressionException, SearchException {
+        AtomicInteger bodies = new AtomicInteger(0);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/searsia/", exchange -> {
+            String etag = "W/\"3cf7\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                bodies.incrementAndGet();
+                byte[] body = "{\"resource\":{\"id\":\"child\", \"apitemplate\":\"http://example.org/?q={q}\"}}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", SearchResult.SEARSIA_MIME_ENCODING);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            Resource mother = new Resource(new JSONObject("{\"id\":\"mother\", \"mimetype\":\"" +
+                SearchResult.SEARSIA_MIME_TYPE + "\", \"apitemplate\":\"" + base + "/searsia/mother?q={q?}\"}"));
+            Resource child = mother.searchResource("child");
+            Assert.assertEquals("child", child.getId());
+            Resource again = mother.searchResource("child", child);
+            Assert.assertTrue("Not modified", again == child);
+            Assert.assertEquals(1, bodies.get());
+            Resource fresh = mother.searchResource("child", null);
+            Assert.assertTrue(fresh != child);
+            Assert.assertEquals(2, bodies.get());
+        } finally {
+            server.stop(0);
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package org.searsia.engine;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+public class StaxReaderTest {
+
+	private static final String xml = "<?xml version=\"1.0\"?>\n<rss xmlns:dc=\"http://purl.org/dc/elements/1.1/\" version=\"2.0\">" +
+	    "<channel><title>Feed</title>\n<item id=\"i1\"><title>One &amp; two</title><link>http://example.org/1</link>" +
+	    "<description><![CDATA[<b>bold</b>]]> text</description><dc:creator>me</dc:creator><!-- c --></item>\n" +
+	    "<item id=\"i2\" b=\"y\" a=\"x\"><title>Three</title><link>http://example.org/3</link></item></channel></rss>";
+
+	private static List<String> dom(String path) throws XPathExpressionException {
+		Document document = DOMBuilder.string2DOM(xml);
+		NodeList nodes = (NodeList) new XPathPool(path).evaluate(document, XPathConstants.NODESET);
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < nodes.getLength(); i += 1) {
+			result.add(nodes.item(i).getTextContent());
+		}
+		return result;
+	}
+
+	private static List<String> stream(String path) throws XMLStreamException {
+		ItemCollector collector = new ItemCollector();
+		StaxReader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null, collector);
+		List<String> result = new ArrayList<>();
+		for (TreeNode node: PathExpression.compile(path).select(TreeNode.model, collector.getDocument())) {
+			result.add(PathExpression.stringValue(TreeNode.model, node));
+		}
+		return result;
+	}
+
+	private static List<String> items(String path, String text, int max) throws XMLStreamException {
+		List<String> result = new ArrayList<>();
+		ItemCollector collector = new ItemCollector(PathExpression.compile(path).getItemMatcher(), max,
+		    item -> result.add(PathExpression.stringValue(TreeNode.model, item)));
+		StaxReader.read(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), "UTF-8", collector);
+		return result;
+	}
+
+	@Test
+	public void testSameAsDOM() throws XPathExpressionException, XMLStreamException {
+		String[] paths = { "//item", "/rss/channel/item/title", "//description/text()", "//item/@*", "//rss/@*",
+		    "//item[@id='i2']/link", "//channel/*[2]", "//item[title='Three']/following-sibling::*", "//title/.." };
+		for (String path: paths) {
+			Assert.assertEquals(path, dom(path), stream(path));
+		}
+	}
+
+	@Test
+	public void testItems() throws XPathExpressionException, XMLStreamException {
+		Assert.assertEquals(dom("//item"), items("//item", xml, 30));
+		Assert.assertEquals(dom("//item[link='http://example.org/3']"), items("//item[link='http://example.org/3']", xml, 30));
+		Assert.assertEquals(1, items("/rss/channel/item", xml, 1).size());
+	}
+
+	@Test
+	public void testStopsEarly() throws XMLStreamException {
+		String text = "<rss><channel><item>a</item><item>b</item><item>c</item><not well-formed";
+		Assert.assertEquals(2, items("//item", text, 2).size());
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void testNotWellFormed() throws XMLStreamException {
+		items("//item", "<rss><item>a</rss>", 30);
+	}
+
+	@Test
+	public void testNodeTest() {
+		Assert.assertTrue(PathExpression.compile("./node()[2]").hasNodeTest());
+		Assert.assertTrue(PathExpression.compile("//item[.//node()]").hasNodeTest());
+		Assert.assertFalse(PathExpression.compile("//item//title").hasNodeTest());
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.searsia.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TemplateTest {
+
+	private static Map<String, String> noParameters = new HashMap<>();
+
+	@Test
+	public void testQueryAndPages() throws SearchException {
+		Template template = new Template("http://example.org/?s={searchTerms}&o={q?}&p={startPage?}&x={other?}");
+		Assert.assertEquals("http://example.org/?s=a+b&o=a+b&p=&x=", template.expand("a+b", null, 1, noParameters));
+		Assert.assertEquals("http://example.org/?s=a&o=a&p=3&x=", template.expand("a", 3, 1, noParameters));
+	}
+
+	@Test
+	public void testIndexOffset() throws SearchException {
+		Template template = new Template("http://example.org/?s={searchTerms}&p={startPage}");
+		Assert.assertEquals("http://example.org/?s=a&p=0", template.expand("a", null, 0, noParameters));
+		Assert.assertEquals("http://example.org/?s=a&p=2", template.expand("a", 2, 0, noParameters));
+	}
+
+	@Test
+	public void testPrivateParameters() throws SearchException {
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("apikey", "$ecret");
+		Template template = new Template("http://example.org/?s={q}&key={apikey}");
+		Assert.assertEquals("http://example.org/?s=a&key=$ecret", template.expand("a", null, 1, parameters));
+	}
+
+	@Test
+	public void testJsonPost() throws SearchException {
+		Template template = new Template("{\"query\": \"{searchTerms}\", \"options\": {\"size\": 10}}");
+		Assert.assertEquals("{\"query\": \"{x?}\", \"options\": {\"size\": 10}}", template.expand("{x?}", null, 1, noParameters));
+	}
+
+	@Test(expected = SearchException.class)
+	public void testMissingParameter() throws SearchException {
+		new Template("http://example.org/?s={searchTerms}&key={apikey}").expand("a", null, 1, noParameters);
+	}
+
+}
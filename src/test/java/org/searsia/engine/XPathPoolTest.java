@@ -0,0 +1,46 @@
+package org.searsia.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+public class XPathPoolTest {
+
+	@Test
+	public void testConcurrentEvaluation() throws Exception {
+		StringBuilder xml = new StringBuilder("<root>");
+		for (int i = 0; i < 100; i += 1) {
+			xml.append("<item><title>Title " + i + "</title></item>");
+		}
+		xml.append("</root>");
+		XPathPool pool = new XPathPool("//item[./title]");
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 64; i += 1) {
+			futures.add(executor.submit(() -> {
+				Document document = DOMBuilder.string2DOM(xml.toString()); // one document per search
+				return ((NodeList) pool.evaluate(document, XPathConstants.NODESET)).getLength();
+			}));
+		}
+		for (Future<Integer> future: futures) {
+			Assert.assertEquals(100, (int) future.get());
+		}
+		executor.shutdown();
+	}
+
+	@Test(expected = XPathExpressionException.class)
+	public void testWrongPath() throws XPathExpressionException {
+		new XPathPool("//item[");
+	}
+
+}
@@ -0,0 +1,136 @@
+package org.searsia.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.searsia.Hit;
+import org.searsia.SearchResult;
+
+public class CompressionTest {
+
+	private static final String BASE = "http://127.0.0.1:16845/";
+	private static HttpServer server;
+
+	@Path("searsia")
+	public static class Pages {
+		@GET @Path("{size}")
+		public String get(@PathParam("size") int size) {
+			StringBuilder page = new StringBuilder();
+			while (page.length() < size) {
+				page.append("{\"title\":\"Searsia\"},");
+			}
+			return page.toString();
+		}
+		@GET @Path("hits/{count}")
+		public Response hits(@PathParam("count") int count) {
+			SearchResult result = new SearchResult();
+			for (int i = 0; i < count; i += 1) {
+				result.addHit(new Hit("Hit <b>" + i + "</b>", "Searsia", "http://searsia.org/" + i, null, null));
+			}
+			return SearsiaApplication.responseOk(result, false, new JSONObject());
+		}
+	}
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		ServerTuning tuning = new ServerTuning();
+		tuning.set("compression.searsia", "1000");
+		ResourceConfig app = new ResourceConfig().register(Pages.class).register(new Compression(tuning))
+			.register(SearsiaEntityWriter.class);
+		server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE), app);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		server.shutdownNow();
+	}
+
+	private static HttpURLConnection get(String path, String acceptEncoding) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(BASE + path).openConnection();
+		if (acceptEncoding != null) {
+			connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+		}
+		Assert.assertEquals(200, connection.getResponseCode());
+		return connection;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream stream = in) {
+			stream.transferTo(out);
+		}
+		return out.toString(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		HttpURLConnection connection = get("searsia/5000", "deflate, gzip");
+		Assert.assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+		Assert.assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+		String page = read(new GZIPInputStream(connection.getInputStream()));
+		Assert.assertTrue(page.length() >= 5000);
+		Assert.assertTrue(page.startsWith("{\"title\":\"Searsia\"}"));
+	}
+
+	@Test
+	public void testSearchResult() throws IOException {
+		HttpURLConnection connection = get("searsia/hits/80", "gzip");
+		Assert.assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+		JSONObject json = new JSONObject(read(new GZIPInputStream(connection.getInputStream())));
+		Assert.assertEquals(80, json.getJSONArray("hits").length());
+		Assert.assertEquals("Hit 0", json.getJSONArray("hits").getJSONObject(0).getString("title"));
+		Assert.assertEquals(SearsiaApplication.VERSION, json.getString("searsia"));
+		connection = get("searsia/hits/2", "gzip");
+		Assert.assertNull(connection.getHeaderField("Content-Encoding"));
+		Assert.assertEquals(2, new JSONObject(read(connection.getInputStream())).getJSONArray("hits").length());
+	}
+
+	@Test
+	public void testDeflate() throws IOException {
+		HttpURLConnection connection = get("searsia/5000", "gzip;q=0, deflate");
+		Assert.assertEquals("deflate", connection.getHeaderField("Content-Encoding"));
+		String page = read(new InflaterInputStream(connection.getInputStream()));
+		Assert.assertTrue(page.length() >= 5000);
+	}
+
+	@Test
+	public void testSmallOrNotAccepted() throws IOException {
+		HttpURLConnection connection = get("searsia/100", "gzip");
+		Assert.assertNull(connection.getHeaderField("Content-Encoding"));
+		Assert.assertTrue(read(connection.getInputStream()).startsWith("{\"title\""));
+		connection = get("searsia/5000", null);
+		Assert.assertNull(connection.getHeaderField("Content-Encoding"));
+		Assert.assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+	}
+
+	@Test
+	public void testNegotiate() {
+		Assert.assertEquals("gzip", Compression.negotiate("gzip, deflate, br"));
+		Assert.assertEquals("deflate", Compression.negotiate("deflate"));
+		Assert.assertEquals("deflate", Compression.negotiate("gzip;q=0, deflate;q=0.5"));
+		Assert.assertEquals("gzip", Compression.negotiate("*"));
+		Assert.assertNull(Compression.negotiate("identity"));
+		Assert.assertNull(Compression.negotiate(null));
+	}
+
+}
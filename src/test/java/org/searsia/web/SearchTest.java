@@ -1,6 +1,8 @@
 package org.searsia.web;
 
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -10,6 +12,7 @@ import java.util.logging.Handler;
 import javax.ws.rs.core.Response;
 import javax.xml.xpath.XPathExpressionException;
 
+import org.glassfish.jersey.server.ChunkedOutput;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -18,6 +21,8 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import org.searsia.Hit;
+import org.searsia.SearchResult;
 import org.searsia.SearsiaOptions;
 import org.searsia.index.SearchResultIndex;
 import org.searsia.index.ResourceIndex;
@@ -90,7 +95,7 @@ public class SearchTest {
         engines.put(okDeleted());
         Response response = search.query("wikifull1.json", "informat", null, null, null);
         int status = response.getStatus();
-        String entity = (String) response.getEntity();
+        String entity = response.getEntity().toString();
         JSONObject json = new JSONObject(entity);
         Assert.assertEquals(410, status);
         LOGGER.finest("No result: " + json);        
@@ -102,7 +107,7 @@ public class SearchTest {
 		Search search = new Search(index, engines, options);
 		Response response = search.query("wiki.json", "", null, null, null);
 		int status = response.getStatus();
-		String entity = (String) response.getEntity();
+		String entity = response.getEntity().toString();
 		JSONObject json = new JSONObject(entity);
 		JSONObject resource  = (JSONObject) json.get("resource");
         Assert.assertEquals(200, status);
@@ -114,7 +119,7 @@ public class SearchTest {
 		Search search = new Search(index, engines, options);
 		Response response = search.query("wiki.json", "searsia search for noobs", null, null, null);
 		int status = response.getStatus();
-		String entity = (String) response.getEntity();
+		String entity = response.getEntity().toString();
 		JSONObject json = new JSONObject(entity);
 		JSONArray hits  = json.getJSONArray("hits");
 		String url = "";
@@ -133,24 +138,101 @@ public class SearchTest {
 		
 		response = search.query("wiki.json", "searsia", "blog", null, null);
         status = response.getStatus();
-        entity = (String) response.getEntity();
+        entity = response.getEntity().toString();
         json = new JSONObject(entity);
         hits  = json.getJSONArray("hits");
         Assert.assertTrue(hits.length() == 2);
         LOGGER.finest("Local blog result: " + json.toString());
 	}
     
+    @Test // returns merged results of the best resources: 'wikifull1' from the cache
+	public void testFanout() throws IOException, XPathExpressionException, JSONException {
+		Search search = new Search(index, engines, options);
+		SearchResult cached = new SearchResult(new Hit("Fan-out", "test", "http://searsia.org/fanout.html", null, null));
+		cached.setQuery("fanouttest");
+		cached.setResourceId("wikifull1");
+		cached.addResourceDate("wikifull1");
+		index.offer(cached);
+		Response response = search.fanout("wiki.json", "fanouttest", null, "3");
+		JSONObject json = new JSONObject(response.getEntity().toString());
+		Assert.assertEquals(200, response.getStatus());
+		Assert.assertEquals("ok", json.getJSONObject("fanout").get("wikifull1"));
+		Assert.assertFalse("No direct access", json.getJSONObject("fanout").has("search"));
+		JSONObject hit = json.getJSONArray("hits").getJSONObject(0);
+		Assert.assertEquals("wikifull1", hit.get("rid"));
+		Assert.assertEquals(400, search.fanout("wiki.json", "", null, null).getStatus());
+		Assert.assertEquals(404, search.fanout("wrong.json", "fanouttest", null, null).getStatus());
+	}
+
+    @Test // streams the results of 'wikifull1' from the cache, one line per event
+	public void testStream() throws IOException, XPathExpressionException, JSONException, InterruptedException {
+		Search search = new Search(index, engines, options);
+		SearchResult cached = new SearchResult(new Hit("Stream", "test", "http://searsia.org/stream.html", null, null));
+		cached.setQuery("streamtest");
+		cached.setResourceId("wikifull1");
+		index.offer(cached);
+		StreamOutput out = new StreamOutput();
+		Response response = search.stream("wiki.json", "streamtest", null, "3", null, out);
+		Assert.assertEquals(200, response.getStatus());
+		Assert.assertSame(out, response.getEntity());
+		String[] lines = out.await().split("\n");
+		Assert.assertEquals("start", new JSONObject(lines[0]).get("event"));
+		Assert.assertEquals("done", new JSONObject(lines[lines.length - 1]).get("event"));
+		boolean found = false;
+		for (String line: lines) {
+			JSONObject event = new JSONObject(line);
+			if ("wikifull1".equals(event.opt("rid"))) {
+				Assert.assertEquals("hits", event.get("event"));
+				Assert.assertEquals("Stream", event.getJSONArray("hits").getJSONObject(0).get("title"));
+				found = true;
+			}
+		}
+		Assert.assertTrue(found);
+		out = new StreamOutput();
+		search.stream("wiki.json", "streamtest", null, "3", "text/event-stream", out);
+		Assert.assertTrue(out.await().startsWith("event: start\ndata: {"));
+	}
+
+	/**
+	 * Keeps the chunks, as there is no web server to send them to
+	 */
+	private static class StreamOutput extends ChunkedOutput<String> {
+		private final StringBuffer chunks = new StringBuffer();
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		private StreamOutput() {
+			super(String.class);
+		}
+
+		@Override
+		public void write(String chunk) {
+			this.chunks.append(chunk);
+		}
+
+		@Override
+		public void close() {
+			this.closed.countDown();
+		}
+
+		private String await() throws InterruptedException {
+			Assert.assertTrue(this.closed.await(20, TimeUnit.SECONDS));
+			return this.chunks.toString();
+		}
+	}
+
     @Test // returns local resource 'wrong' 
 	public void testResource() throws IOException, XPathExpressionException, JSONException {
 		Search search = new Search(index, engines, options);
 		Response response = search.query("wrong.json", "", null, null, null);
 		int status = response.getStatus();
-		String entity = (String) response.getEntity();
+		String entity = response.getEntity().toString();
 		JSONObject json = new JSONObject(entity);
 		JSONObject resource  = (JSONObject) json.get("resource");
 		Assert.assertEquals(200, status);
 		Assert.assertTrue(json.has("health"));
 		Assert.assertEquals(wrong().getAPITemplate(), resource.get("apitemplate"));
+		Assert.assertTrue(response.getEntityTag().isWeak());
+		Assert.assertNotNull(response.getLastModified());
 		LOGGER.finest("Wrong: " + resource.toString());
 	}
     
@@ -160,7 +242,7 @@ public class SearchTest {
     	SearsiaOptions newOptions = new SearsiaOptions(args);
 		Search search = new Search(index, engines, newOptions);
 		Response response = search.query("wrong.json", "", null, null, null);
-		String entity = (String) response.getEntity();
+		String entity = response.getEntity().toString();
 		JSONObject json = new JSONObject(entity);
 		JSONObject resource  = (JSONObject) json.get("resource");
 		Assert.assertFalse(json.has("health"));
@@ -173,7 +255,7 @@ public class SearchTest {
 		Search search = new Search(index, engines, options);
 		Response response = search.query("wikididyoumean.json", "", null, null, null);
 		int status = response.getStatus();
-		String entity = (String) response.getEntity();
+		String entity = response.getEntity().toString();
 		JSONObject json = new JSONObject(entity);
 		JSONObject resource  = (JSONObject) json.get("resource");
 		Assert.assertEquals(200, status);
@@ -193,7 +275,7 @@ public class SearchTest {
         Search search = new Search(index, engines, options);
         Response response = search.query("wikifull1.json", "informat", null, null, null);
         int status = response.getStatus();
-        String entity = (String) response.getEntity();
+        String entity = response.getEntity().toString();
         JSONObject json = new JSONObject(entity);
         Assert.assertEquals(200, status);
         Assert.assertNotNull(json.get("hits"));
@@ -202,7 +284,7 @@ public class SearchTest {
         
         response = search.query("wikifull1.json", "informat", null, null, null);
         status = response.getStatus();
-        entity = (String) response.getEntity();
+        entity = response.getEntity().toString();
         json = new JSONObject(entity);
         Assert.assertEquals(200, status);
         Assert.assertNotNull(json.get("hits"));
@@ -215,7 +297,7 @@ public class SearchTest {
         Search search = new Search(index, engines, options);
         Response response = search.query("search.json", null, null, null, null);
         int status = response.getStatus();
-        String entity = (String) response.getEntity();
+        String entity = response.getEntity().toString();
         JSONObject json = new JSONObject(entity);
         json = json.getJSONObject("resource");
         Assert.assertEquals(200, status);
@@ -0,0 +1,68 @@
+package org.searsia.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.Properties;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServerTuningTest {
+
+	private static final String BASE = "http://127.0.0.1:16844/";
+
+	@Test
+	public void testApply() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("workers", "3");
+		properties.setProperty("workerqueue", "50");
+		properties.setProperty("keepalive.idle", "7");
+		properties.setProperty("maxheadersize", "4096");
+		ServerTuning tuning = new ServerTuning();
+		tuning.set(properties);
+		tuning.set("backlog", " 20 ");
+		HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE), new ResourceConfig(), false);
+		tuning.apply(server, false);
+		server.start();
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(BASE + "searsia/test").openConnection();
+			Assert.assertEquals(404, connection.getResponseCode());
+			try (InputStream in = connection.getErrorStream()) {
+				while (in != null && in.read() != -1) { }
+			}
+			JSONObject health = tuning.toJsonHealth();
+			Assert.assertEquals(3, health.getInt("workers"));
+			Assert.assertEquals(50, health.getInt("workerqueue"));
+			Assert.assertEquals(7, health.getInt("keepaliveidle"));
+			Assert.assertEquals(4096, health.getInt("maxheadersize"));
+			Assert.assertEquals(20, health.getInt("backlog"));
+			Assert.assertTrue(health.getInt("selectors") > 0);
+			Assert.assertTrue(health.getLong("completed") + health.getInt("busy") >= 1);
+		} finally {
+			server.shutdownNow();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownSetting() {
+		new ServerTuning().set("wokers", "3");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotANumber() {
+		new ServerTuning().set("workers", "many");
+	}
+
+	@Test
+	public void testNotApplied() {
+		Assert.assertEquals(0, new ServerTuning().toJsonHealth().length());
+	}
+
+}
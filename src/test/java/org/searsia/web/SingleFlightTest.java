@@ -0,0 +1,50 @@
+package org.searsia.web;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	@Test
+	public void testCoalesce() throws Exception {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		AtomicInteger calls = new AtomicInteger();
+		CompletableFuture<String> upstream = new CompletableFuture<>();
+		CompletableFuture<String> first = flights.execute("wiki\ntest", () -> { calls.incrementAndGet(); return upstream; });
+		CompletableFuture<String> second = flights.execute("wiki\ntest", () -> { calls.incrementAndGet(); return upstream; });
+		CompletableFuture<String> other = flights.execute("wiki\nother", () -> CompletableFuture.completedFuture("other"));
+		Assert.assertEquals(1, calls.get());
+		Assert.assertEquals("other", other.get());
+		Assert.assertEquals(1, flights.size());
+		second.cancel(true);  // does not cancel the call
+		upstream.complete("result");
+		Assert.assertEquals("result", first.get());
+		Assert.assertEquals(0, flights.size());
+		flights.execute("wiki\ntest", () -> { calls.incrementAndGet(); return upstream; });
+		Assert.assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		CompletableFuture<String> upstream = new CompletableFuture<>();
+		CompletableFuture<String> first = flights.execute("key", () -> upstream.thenApply(s -> s));
+		CompletableFuture<String> second = flights.execute("key", () -> upstream);
+		upstream.completeExceptionally(new IOException("down"));
+		for (CompletableFuture<String> future: new CompletableFuture[] { first, second }) {
+			try {
+				future.get();
+				Assert.fail("Call failed");
+			} catch (ExecutionException e) {
+				Assert.assertEquals("down", e.getCause().getMessage());
+			}
+		}
+		Assert.assertEquals(0, flights.size());
+	}
+
+}